@@ -1,30 +1,49 @@
+-- Caregivers, Patients and Vaccines have a surrogate ID (see NameIds), which Availabilities and Appointments store
+-- instead of the name
 CREATE TABLE Caregivers
 (
     Username varchar(255),
     Salt     BINARY(16),
     Hash     BINARY(16),
+    ID       int IDENTITY UNIQUE,
     PRIMARY KEY (Username)
 );
 
 CREATE TABLE Availabilities
 (
-    Time     date,
-    Username varchar(255) REFERENCES Caregivers,
-    PRIMARY KEY (Time, Username)
+    Time        date,
+    CaregiverID int REFERENCES Caregivers(ID),
+    Slots       bigint NOT NULL, -- bit i set: time slot i is free
+    PRIMARY KEY (Time, CaregiverID)
 );
 
 CREATE TABLE Vaccines
 (
     Name  varchar(255),
     Doses int,
+    SecondDoseDays int, -- days from the first to the second dose, NULL for a single dose
+    ID    int IDENTITY UNIQUE,
     PRIMARY KEY (Name)
 );
 
+-- Vaccines.Doses is the total, including the doses of every lot
+CREATE TABLE VaccineLots
+(
+    LotID varchar(64),
+    VaccineName varchar(255) REFERENCES Vaccines(Name),
+    Quantity int NOT NULL,
+    Expiry date NOT NULL,
+    PRIMARY KEY (LotID)
+);
+
+CREATE INDEX VaccineLotsByVaccine ON VaccineLots (VaccineName, Expiry);
+
 CREATE TABLE Patients
 (
     Username varchar(255),
     Salt     BINARY(16),
     Hash     BINARY(16),
+    ID       int IDENTITY UNIQUE,
     PRIMARY KEY (Username)
 );
 
@@ -32,8 +51,55 @@ CREATE TABLE Appointments
 (
     AppointmentID int PRIMARY KEY,
     Time date,
-    VaccineName varchar(255) REFERENCES Vaccines(Name),
-    PatientUsername varchar(255) REFERENCES Patients(Username),
-    CaregiverUsername varchar(255) REFERENCES Caregivers(Username),
+    VaccineID int REFERENCES Vaccines(ID),
+    PatientID int REFERENCES Patients(ID),
+    CaregiverID int REFERENCES Caregivers(ID),
+    Cancelled int,
+    Slot int, -- NULL for appointments booked before time slots
+    LotID varchar(64), -- NULL when the dose was not taken from a lot
+)
+
+CREATE TABLE VaccineUsage
+(
+    Day date,
+    VaccineName varchar(255),
+    Booked int,
+    Cancelled int,
+    Added int,
+    PRIMARY KEY (Day, VaccineName)
+);
+
+-- Filled by the archiver. No foreign keys, it is the target of DELETE ... OUTPUT INTO.
+CREATE TABLE AppointmentsArchive
+(
+    AppointmentID int PRIMARY KEY,
+    Time date,
+    VaccineID int,
+    PatientID int,
+    CaregiverID int,
     Cancelled int,
-)
\ No newline at end of file
+    Slot int,
+    LotID varchar(64)
+);
+
+CREATE TABLE IdempotencyKeys
+(
+    RequestKey varchar(64),
+    Operation varchar(16),
+    Username varchar(255),
+    AppointmentID int,
+    Created datetime2,
+    PRIMARY KEY (RequestKey)
+);
+
+CREATE TABLE AuditLog
+(
+    EventID bigint IDENTITY PRIMARY KEY,
+    EventTime datetime2,
+    Action varchar(32),
+    Username varchar(255),
+    AppointmentID int,
+    Day date,
+    VaccineName varchar(255),
+    Doses int
+);
@@ -0,0 +1,34 @@
+-- Schema for shards 1..N-1 (see ShardRouter). Shard 0 is created from create.sql.
+-- Caregivers, Patients and Vaccines only live on shard 0, so there are no foreign keys to their IDs here.
+
+CREATE TABLE Availabilities
+(
+    Time        date,
+    CaregiverID int,
+    Slots       bigint NOT NULL, -- bit i set: time slot i is free
+    PRIMARY KEY (Time, CaregiverID)
+);
+
+CREATE TABLE Appointments
+(
+    AppointmentID int PRIMARY KEY,
+    Time date,
+    VaccineID int,
+    PatientID int,
+    CaregiverID int,
+    Cancelled int,
+    Slot int, -- NULL for appointments booked before time slots
+    LotID varchar(64), -- NULL when the dose was not taken from a lot
+)
+
+CREATE TABLE AppointmentsArchive
+(
+    AppointmentID int PRIMARY KEY,
+    Time date,
+    VaccineID int,
+    PatientID int,
+    CaregiverID int,
+    Cancelled int,
+    Slot int,
+    LotID varchar(64)
+);
@@ -0,0 +1,11 @@
+-- Adds the archive table to a database created before it existed. Run on every shard.
+CREATE TABLE AppointmentsArchive
+(
+    AppointmentID int PRIMARY KEY,
+    Time date,
+    VaccineName varchar(255),
+    PatientUsername varchar(255),
+    CaregiverUsername varchar(255),
+    Cancelled int,
+    Slot int
+);
@@ -0,0 +1,12 @@
+-- Adds the request key table to a database created before it existed. Run on the home database (shard 0) only;
+-- request keys are no longer kept on the other shards, drop their IdempotencyKeys tables if an earlier version made
+-- them.
+CREATE TABLE IdempotencyKeys
+(
+    RequestKey varchar(64),
+    Operation varchar(16),
+    Username varchar(255),
+    AppointmentID int,
+    Created datetime2,
+    PRIMARY KEY (RequestKey)
+);
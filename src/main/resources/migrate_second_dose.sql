@@ -0,0 +1,4 @@
+-- Adds the second dose interval to a database created before reserve_series existed. Run on shard 0 only.
+-- Vaccines keep a NULL SecondDoseDays, meaning a single dose, until it is set, e.g.
+--     UPDATE Vaccines SET SecondDoseDays = 21 WHERE Name = 'Pfizer';
+ALTER TABLE Vaccines ADD SecondDoseDays int NULL;
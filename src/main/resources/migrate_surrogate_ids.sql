@@ -0,0 +1,65 @@
+-- Replaces the names in Availabilities, Appointments and AppointmentsArchive of a database created before surrogate
+-- IDs existed by the IDs (see NameIds). Run with sqlcmd or SSMS while the scheduler is stopped: part 1 on shard 0,
+-- part 2 on every shard, part 3 on shard 0. Before part 2 on shards 1..N-1, copy the CaregiverIDs, PatientIDs and
+-- VaccineIDs tables made by part 1 over from shard 0 (e.g. with bcp), and drop them again afterwards.
+
+-- Part 1, shard 0 only: number the existing rows
+ALTER TABLE Caregivers ADD ID int IDENTITY UNIQUE;
+ALTER TABLE Patients ADD ID int IDENTITY UNIQUE;
+ALTER TABLE Vaccines ADD ID int IDENTITY UNIQUE;
+GO
+
+SELECT ID, Username AS Name INTO CaregiverIDs FROM Caregivers;
+SELECT ID, Username AS Name INTO PatientIDs FROM Patients;
+SELECT ID, Name INTO VaccineIDs FROM Vaccines;
+GO
+
+-- Part 2, every shard: the foreign keys and the primary key of Availabilities use the names, and are named by the
+-- server, so they are looked up
+DECLARE @drop nvarchar(max) = N'';
+SELECT @drop += N'ALTER TABLE ' + QUOTENAME(OBJECT_NAME(parent_object_id)) + N' DROP CONSTRAINT ' + QUOTENAME(name) + N'; '
+FROM sys.objects
+WHERE (type = 'F' AND parent_object_id IN (OBJECT_ID('Availabilities'), OBJECT_ID('Appointments')))
+   OR (type = 'PK' AND parent_object_id = OBJECT_ID('Availabilities'));
+EXEC sp_executesql @drop;
+GO
+
+ALTER TABLE Availabilities ADD CaregiverID int;
+ALTER TABLE Appointments ADD VaccineID int, PatientID int, CaregiverID int;
+ALTER TABLE AppointmentsArchive ADD VaccineID int, PatientID int, CaregiverID int;
+GO
+
+UPDATE a SET CaregiverID = c.ID
+FROM Availabilities a JOIN CaregiverIDs c ON c.Name = a.Username;
+
+UPDATE a SET VaccineID = v.ID, PatientID = p.ID, CaregiverID = c.ID
+FROM Appointments a
+         JOIN VaccineIDs v ON v.Name = a.VaccineName
+         JOIN PatientIDs p ON p.Name = a.PatientUsername
+         JOIN CaregiverIDs c ON c.Name = a.CaregiverUsername;
+
+UPDATE a SET VaccineID = v.ID, PatientID = p.ID, CaregiverID = c.ID
+FROM AppointmentsArchive a
+         JOIN VaccineIDs v ON v.Name = a.VaccineName
+         JOIN PatientIDs p ON p.Name = a.PatientUsername
+         JOIN CaregiverIDs c ON c.Name = a.CaregiverUsername;
+GO
+
+ALTER TABLE Availabilities ALTER COLUMN CaregiverID int NOT NULL;
+ALTER TABLE Availabilities DROP COLUMN Username;
+ALTER TABLE Appointments DROP COLUMN VaccineName, PatientUsername, CaregiverUsername;
+ALTER TABLE AppointmentsArchive DROP COLUMN VaccineName, PatientUsername, CaregiverUsername;
+GO
+
+ALTER TABLE Availabilities ADD PRIMARY KEY (Time, CaregiverID);
+GO
+
+-- Part 3, shard 0 only: the foreign keys of create.sql
+ALTER TABLE Availabilities ADD FOREIGN KEY (CaregiverID) REFERENCES Caregivers(ID);
+ALTER TABLE Appointments ADD FOREIGN KEY (VaccineID) REFERENCES Vaccines(ID);
+ALTER TABLE Appointments ADD FOREIGN KEY (PatientID) REFERENCES Patients(ID);
+ALTER TABLE Appointments ADD FOREIGN KEY (CaregiverID) REFERENCES Caregivers(ID);
+
+DROP TABLE CaregiverIDs;
+DROP TABLE PatientIDs;
+DROP TABLE VaccineIDs;
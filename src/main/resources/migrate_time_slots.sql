@@ -0,0 +1,9 @@
+-- Adds time slots to a database created before they existed. Run on every shard while the scheduler is stopped.
+-- Existing availabilities get every slot of the default clinic day (09:00 to 17:00 in 15 minute slots, 32 slots);
+-- change 4294967295 (2^32 - 1) to 2^n - 1 for a day of n slots. Existing appointments keep a NULL Slot, meaning
+-- they took the caregiver's whole day.
+ALTER TABLE Availabilities ADD Slots bigint NOT NULL DEFAULT 4294967295;
+
+ALTER TABLE Appointments ADD Slot int NULL;
+
+ALTER TABLE AppointmentsArchive ADD Slot int NULL;
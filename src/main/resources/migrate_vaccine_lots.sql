@@ -0,0 +1,16 @@
+-- Adds vaccine lots to a database created before they existed. Run the whole script on shard 0, and only the
+-- ALTER TABLE statements on the other shards. Existing doses keep no lot and never expire.
+CREATE TABLE VaccineLots
+(
+    LotID varchar(64),
+    VaccineName varchar(255) REFERENCES Vaccines(Name),
+    Quantity int NOT NULL,
+    Expiry date NOT NULL,
+    PRIMARY KEY (LotID)
+);
+
+CREATE INDEX VaccineLotsByVaccine ON VaccineLots (VaccineName, Expiry);
+
+ALTER TABLE Appointments ADD LotID varchar(64) NULL;
+
+ALTER TABLE AppointmentsArchive ADD LotID varchar(64) NULL;
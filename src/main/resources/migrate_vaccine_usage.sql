@@ -0,0 +1,39 @@
+-- Adds the VaccineUsage counters to a database created before they existed. Run with sqlcmd or SSMS while the
+-- scheduler is stopped, and only after migrate_appointments_archive.sql and migrate_surrogate_ids.sql: the backfill
+-- counts Appointments and AppointmentsArchive by VaccineID, and refuses to run on a database without them. Part 1 on
+-- every shard, part 2 on shard 0. Before part 2, copy the VaccineUsageCounts rows of shards 1..N-1 into the table on
+-- shard 0 (e.g. with bcp). Doses added before this migration are not counted.
+
+-- Part 1, every shard: count the appointments booked and cancelled per day and vaccine, archived ones included. The
+-- count runs through EXEC, so that on a database without the columns the check fails instead of the compilation.
+IF OBJECT_ID('AppointmentsArchive') IS NULL OR COL_LENGTH('Appointments', 'VaccineID') IS NULL
+        OR COL_LENGTH('AppointmentsArchive', 'VaccineID') IS NULL
+    THROW 50000, 'Run migrate_appointments_archive.sql and migrate_surrogate_ids.sql before migrate_vaccine_usage.sql', 1;
+
+EXEC (N'SELECT Time AS Day, VaccineID, COUNT(*) AS Booked, SUM(Cancelled) AS Cancelled
+INTO VaccineUsageCounts
+FROM (SELECT Time, VaccineID, Cancelled FROM Appointments
+      UNION ALL
+      SELECT Time, VaccineID, Cancelled FROM AppointmentsArchive) a
+GROUP BY Time, VaccineID');
+GO
+
+-- Part 2, shard 0 only: add up the counts of all shards under the vaccine names
+CREATE TABLE VaccineUsage
+(
+    Day date,
+    VaccineName varchar(255),
+    Booked int,
+    Cancelled int,
+    Added int,
+    PRIMARY KEY (Day, VaccineName)
+);
+
+INSERT INTO VaccineUsage (Day, VaccineName, Booked, Cancelled, Added)
+SELECT c.Day, v.Name, SUM(c.Booked), SUM(c.Cancelled), 0
+FROM VaccineUsageCounts c JOIN Vaccines v ON v.ID = c.VaccineID
+GROUP BY c.Day, v.Name;
+GO
+
+-- Then on every shard
+DROP TABLE VaccineUsageCounts;
@@ -1,35 +1,66 @@
 package scheduler;
 
-import scheduler.db.ConnectionManager;
-import scheduler.model.Caregiver;
-import scheduler.model.Patient;
+import scheduler.admission.AdmissionController;
+import scheduler.audit.AuditLog;
+import scheduler.db.Archiver;
+import scheduler.db.Retry;
+import scheduler.db.Warmup;
+import scheduler.model.Appointment;
+import scheduler.model.Availability;
 import scheduler.model.Vaccine;
+import scheduler.model.VaccineUsage;
+import scheduler.service.AccountResult;
+import scheduler.service.CampaignResult;
+import scheduler.service.CancelResult;
+import scheduler.service.ImportResult;
+import scheduler.service.LoginResult;
+import scheduler.service.ReportResult;
+import scheduler.service.ReserveResult;
+import scheduler.service.ScheduleResult;
+import scheduler.service.SchedulerService;
+import scheduler.service.SeriesResult;
+import scheduler.service.UtilizationResult;
+import scheduler.trace.Trace;
+import scheduler.service.Session;
+import scheduler.util.TimeSlots;
 import scheduler.util.Util;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.lang.management.ManagementFactory;
+import java.lang.management.RuntimeMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.SQLException;
 import java.sql.Date;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import static java.lang.Integer.parseInt;
-import static scheduler.util.Util.strongPasswdChecker;
 
 public class Scheduler {
 
-    // objects to keep track of the currently logged-in user
-    // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
-    //       since only one user can be logged-in at a time
-    private static Caregiver currentCaregiver = null;
-    private static Patient currentPatient = null;
+    // the user logged in on this terminal, only one user can be logged-in at a time
+    private static final Session session = new Session();
+
+    // the command line is a thin client of the service, which does all the work
+    private static final SchedulerService service = new SchedulerService();
+
+    private static final AdmissionController admission = AdmissionController.fromEnv();
 
     public static void main(String[] args) throws SQLException {
+        // fast start: warm up connections and hashing in the background while the user reads the prompt
+        boolean fastStart = Arrays.asList(args).contains("--fast-start") || "1".equals(System.getenv("FastStart"));
+        if (fastStart) {
+            Warmup.startInBackground();
+        }
+        // moves cancelled and old appointments out of the hot table, only when ArchiveIntervalMillis is set, see Archiver
+        Archiver.startInBackground();
+        boolean firstCommand = true;
+
         System.out.println();
         System.out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
         // read input from user
@@ -37,6 +68,11 @@ public class Scheduler {
         while (true) {
             // printing greetings text
             printGreetingText();
+            if (fastStart && firstCommand) {
+                RuntimeMXBean runtime = ManagementFactory.getRuntimeMXBean();
+                boolean appCds = runtime.getInputArguments().stream().anyMatch(arg -> arg.startsWith("-XX:SharedArchiveFile"));
+                System.out.println("[fast-start] first prompt after " + runtime.getUptime() + " ms" + (appCds ? " (AppCDS archive)" : ""));
+            }
             System.out.print("> ");
             String response = "";
             try {
@@ -53,24 +89,60 @@ public class Scheduler {
             }
             // determine which operation to perform
             String operation = tokens[0];
-            switch (operation) {
-                case "create_patient" -> createPatient(tokens);
-                case "create_caregiver" -> createCaregiver(tokens);
-                case "login_patient" -> loginPatient(tokens);
-                case "login_caregiver" -> loginCaregiver(tokens);
-                case "search_caregiver_schedule" -> searchCaregiverSchedule(tokens);
-                case "reserve" -> reserve(tokens);
-                case "upload_availability" -> uploadAvailability(tokens);
-                case "cancel" -> cancel(tokens);
-                case "add_doses" -> addDoses(tokens);
-                case "show_appointments" -> showAppointments(tokens);
-                case "logout" -> logout(tokens);
-                case "quit" -> {
-                    System.out.println("Bye!");
-                    return;
+            if (operation.equals("quit")) {
+                // write the audit events still in memory
+                AuditLog.close(2000);
+                System.out.println("Bye!");
+                return;
+            }
+            // every command is traced, see Trace for when the spans are printed
+            Trace trace = Trace.begin(operation);
+            // every command first has to be admitted, see AdmissionController for the limits
+            try {
+                AdmissionController.Permit permit;
+                Trace.Span span = Trace.span("admission");
+                try {
+                    permit = admission.acquire(operation);
+                } finally {
+                    span.close();
                 }
-                default -> System.out.println("Invalid operation name!");
+                try (permit) {
+                    dispatch(operation, tokens);
+                }
+            } catch (AdmissionController.RejectedException e) {
+                System.out.println("The scheduler is busy, please try again later.");
+            } finally {
+                trace.end();
+            }
+            if (fastStart && firstCommand) {
+                System.out.println("[fast-start] first command completed after " + ManagementFactory.getRuntimeMXBean().getUptime() + " ms");
             }
+            firstCommand = false;
+        }
+    }
+
+    private static void dispatch(String operation, String[] tokens) {
+        switch (operation) {
+            case "create_patient" -> createPatient(tokens);
+            case "create_caregiver" -> createCaregiver(tokens);
+            case "import_accounts" -> importAccounts(tokens);
+            case "login_patient" -> loginPatient(tokens);
+            case "login_caregiver" -> loginCaregiver(tokens);
+            case "resume" -> resume(tokens);
+            case "search_caregiver_schedule" -> searchCaregiverSchedule(tokens);
+            case "reserve" -> reserve(tokens);
+            case "reserve_series" -> reserveSeries(tokens);
+            case "upload_availability" -> uploadAvailability(tokens);
+            case "cancel" -> cancel(tokens);
+            case "add_doses" -> addDoses(tokens);
+            case "show_appointments" -> showAppointments(tokens);
+            case "logout" -> logout(tokens);
+            case "report" -> report(tokens);
+            case "plan_campaign" -> planCampaign(tokens);
+            case "stats_utilization" -> statsUtilization(tokens);
+            case "metrics" -> metrics(tokens);
+            case "trace" -> trace(tokens);
+            default -> System.out.println("Invalid operation name!");
         }
     }
 
@@ -79,15 +151,23 @@ public class Scheduler {
         System.out.println("*** Please enter one of the following commands ***");
         System.out.println("> create_patient <username> <password>");
         System.out.println("> create_caregiver <username> <password>");
+        System.out.println("> import_accounts <file>");
         System.out.println("> login_patient <username> <password>");
         System.out.println("> login_caregiver <username> <password>");
+        System.out.println("> resume <token>");
         System.out.println("> search_caregiver_schedule <date>");
-        System.out.println("> reserve <date> <vaccine>");
+        System.out.println("> reserve <date> <vaccine> [<request_key>]");
+        System.out.println("> reserve_series <date> <vaccine>");
         System.out.println("> upload_availability <date>");
-        System.out.println("> cancel <appointment_id>");
-        System.out.println("> add_doses <vaccine> <number>");
-        System.out.println("> show_appointments");
+        System.out.println("> cancel <appointment_id> [<request_key>]");
+        System.out.println("> add_doses <vaccine> <number> [<lot> <expiry>]");
+        System.out.println("> show_appointments [include_archived]");
         System.out.println("> logout");
+        System.out.println("> report daily <date> <outdir>");
+        System.out.println("> plan_campaign <patients-file> <start> <end> <vaccine>");
+        System.out.println("> stats_utilization <start> <end>");
+        System.out.println("> metrics");
+        System.out.println("> trace <on|off>");
         System.out.println("> quit");
         System.out.println();
     }
@@ -113,58 +193,49 @@ public class Scheduler {
             return;
         }
 
-        String username = tokens[1];
-        String password = tokens[2];
-
-        // check 2: check if the username has been taken already
-        if(usernameExists(username, isCaregiver)) {
-            System.out.println("Username taken, try for another username!");
-            return;
-        }
-
-        // check3: check strong password
-        if(!strongPasswdChecker(password)) {
-            return;
-        }
-
-        byte[] salt = Util.generateSalt();
-        byte[] hash = Util.generateHash(password, salt);
-
-        // create the account
+        AccountResult result;
         try {
-            if(isCaregiver) {
-                currentCaregiver = new Caregiver.CaregiverBuilder(username, salt, hash).build();
-                // save to caregiver information to our database
-                currentCaregiver.saveToDB();
-            } else {
-                currentPatient = new Patient.PatientBuilder(username, salt, hash).build();
-                currentPatient.saveToDB();
-            }
-            System.out.println(" *** Account created successfully *** ");
+            result = await(service.createAccount(session, tokens[1], tokens[2], isCaregiver));
         } catch (SQLException e) {
             System.out.println("We've encountered issue when creating a new " + (isCaregiver ? "caregiver" : "patient") + " account. Please try again");
             e.printStackTrace();
+            return;
+        }
+        switch (result.getStatus()) {
+            case USERNAME_TAKEN -> System.out.println("Username taken, try for another username!");
+            case WEAK_PASSWORD -> Util.printWeakPasswdMessage();
+            case CREATED -> System.out.println(" *** Account created successfully *** ");
         }
     }
 
-    private static boolean usernameExists(String username, boolean isCaregiver) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String selectUsername = "SELECT * FROM " + (isCaregiver ? "Caregivers" : "Patients") + " WHERE Username = ?";
+    private static void importAccounts(String[] tokens) {
+        // import_accounts <file>
+        // Each line of the file is "<patient|caregiver>,<username>,<password>"
+        if (tokens.length != 2) {
+            System.out.println("Incorrect number of parameter passed.");
+            System.out.println("Usage: import_accounts <file>");
+            return;
+        }
+        Path file = Path.of(tokens[1]);
+        if (!Files.isReadable(file)) {
+            System.out.println("Cannot read file " + tokens[1]);
+            return;
+        }
+        ImportResult result;
         try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            return resultSet.isBeforeFirst();
+            result = await(service.importAccounts(session, file));
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking username in " + (isCaregiver ? "Caregivers" : "Patients") + " database");
-            e.printStackTrace();
-        } finally {
-            cm.closeConnection();
+            System.out.println("We've encountered issue when importing accounts.");
+            return;
+        }
+        switch (result.getStatus()) {
+            case IMPORTED -> System.out.println(" *** Imported " + result.getRowsImported() + " accounts, "
+                    + result.getRowsRejected() + " rejected (see " + result.getRejectFile() + ") *** ");
+            case FAILED -> {
+                System.out.println("We've encountered issue when importing accounts, " + result.getRowsImported() + " accounts were imported before the error.");
+                result.getError().printStackTrace();
+            }
         }
-        return true;
     }
 
     private static void loginPatient(String[] tokens) {
@@ -177,7 +248,7 @@ public class Scheduler {
     private static void login(String[] tokens, boolean isCaregiver) {
         // login_caregiver/login_patient <username> <password>
         // check 1: if someone's already logged-in, they need to log out first
-        if (currentCaregiver != null || currentPatient != null) {
+        if (session.isLoggedIn()) {
             System.out.println("Already logged-in!");
             return;
         }
@@ -188,383 +259,283 @@ public class Scheduler {
             return;
         }
 
-        String username = tokens[1];
-        String password = tokens[2];
-
-        Caregiver caregiver = null;
-        Patient patient = null;
-
+        LoginResult result;
         try {
-            if(isCaregiver) {
-                caregiver = new Caregiver.CaregiverGetter(username, password).get();
-            } else {
-                patient = new Patient.PatientGetter(username, password).get();
-            }
+            result = await(service.login(session, tokens[1], tokens[2], isCaregiver));
         } catch (SQLException e) {
             System.out.println("Error occurred when logging in " + (isCaregiver ? "Caregiver" : "Patient"));
             return;
-            // e.printStackTrace();
         }
         // check if the login was successful
-        if(isCaregiver) {
-            if (caregiver == null) {
-                System.out.println("Please try again!");
-            } else {
-                System.out.println("Caregiver logged in as: " + username);
-                currentCaregiver = caregiver;
-            }
-        } else {
-            if (patient == null) {
-                System.out.println("Please try again!");
-            } else {
-                System.out.println("Patient logged in as: " + username);
-                currentPatient = patient;
+        switch (result.getStatus()) {
+            case ALREADY_LOGGED_IN -> System.out.println("Already logged-in!");
+            case FAILED -> System.out.println("Please try again!");
+            case LOGGED_IN -> {
+                System.out.println((isCaregiver ? "Caregiver" : "Patient") + " logged in as: " + result.getUsername());
+                // only issued when SessionKey is set, otherwise resume could never accept it
+                if (result.getToken() != null) {
+                    System.out.println("Session token: " + result.getToken());
+                }
             }
         }
     }
 
+    private static void resume(String[] tokens) {
+        // resume <token>
+        // logs in again with the session token printed by login_caregiver/login_patient
+        if (tokens.length != 2) {
+            System.out.println("Incorrect number of parameter passed.");
+            System.out.println("Usage: resume <token>");
+            return;
+        }
+        LoginResult result = service.resume(session, tokens[1]);
+        switch (result.getStatus()) {
+            case ALREADY_LOGGED_IN -> System.out.println("Already logged-in!");
+            case FAILED -> System.out.println("Invalid or expired token, please login again!");
+            case TOKENS_DISABLED -> System.out.println("Session tokens are disabled, set SessionKey to use resume.");
+            case LOGGED_IN -> System.out.println((session.getCaregiver() != null ? "Caregiver" : "Patient") + " logged in as: " + result.getUsername());
+        }
+    }
+
     private static void searchCaregiverSchedule(String[] tokens) {
         // search_caregiver_schedule <date>
         // Both patients and caregivers can perform this operation.
         // Output the username for the caregivers that are available for the date,
         // along with the number of available doses left for each vaccine
-
-        // check 1: whether we've logged in as caregiver or patient
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login as caregiver or patient first.");
-            return;
-        }
-
         if (tokens.length != 2) {
             System.out.println("Incorrect number of parameter passed.");
             System.out.println("Usage: search_caregiver_schedule <date>");
             return;
         }
+        Date d;
+        try {
+            d = Date.valueOf(tokens[1]);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Please enter a valid date!");
+            return;
+        }
 
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String findCaregiverByTime = "SELECT Username FROM Availabilities WHERE Time = ?";
+        ScheduleResult result;
         try {
-            PreparedStatement statement = con.prepareStatement(findCaregiverByTime);
-            Date d = Date.valueOf(tokens[1]);
-            statement.setDate(1, d);
-            ResultSet resultSet = statement.executeQuery();
-            if(!resultSet.isBeforeFirst()) {
-                System.out.println("There are no available caregivers in your requested time: " + tokens[1]);
-                return;
-            }
-            System.out.println("Caregivers available on: " + tokens[1]);
-            while (resultSet.next()) {
-                System.out.println(resultSet.getString("Username"));
-            }
-            System.out.println();
+            result = await(service.search(session, d));
+        } catch (IllegalStateException e) {
+            System.out.println(e.getMessage());
+            return;
         } catch (SQLException e) {
             System.out.println("Error occurred while fetching caregiver scheduling.");
             return;
-        } finally {
-            cm.closeConnection();
         }
 
-        ConnectionManager cm1 = new ConnectionManager();
-        Connection con1 = cm1.createConnection();
-        String availableVaccines = "SELECT * FROM Vaccines";
-        try {
-            PreparedStatement vaccineStatement = con1.prepareStatement(availableVaccines);
-            ResultSet vaccineResultSet = vaccineStatement.executeQuery();
-            if(!vaccineResultSet.isBeforeFirst()) {
-                System.out.println("Sorry, we don't offer COVID-19 vaccines at this location.");
-                return;
-            }
-            System.out.printf("%-20s%s\n", "Brand", "Available doses");
-            while (vaccineResultSet.next()) {
-                System.out.printf("%-20s%d\n", vaccineResultSet.getString("Name"), vaccineResultSet.getInt("Doses"));
-            }
-        } catch (SQLException e) {
-            System.out.println("Error occurred while fetching vaccine inventory.");
+        if (result.getCaregivers().isEmpty()) {
+            System.out.println("There are no available caregivers in your requested time: " + tokens[1]);
+            return;
+        }
+        System.out.println("Caregivers available on: " + tokens[1]);
+        System.out.printf("%-20s%-20s%s\n", "Caregiver", "Free slots", "First free slot");
+        for (Availability caregiver : result.getCaregivers()) {
+            System.out.printf("%-20s%-20d%s\n", caregiver.getUsername(), caregiver.getFreeSlotCount(),
+                    TimeSlots.start(caregiver.getFirstFreeSlot()));
+        }
+        System.out.println();
+
+        if (result.getVaccines().isEmpty()) {
+            System.out.println("Sorry, we don't offer COVID-19 vaccines at this location.");
             return;
-        } finally {
-            cm1.closeConnection();
+        }
+        System.out.printf("%-20s%s\n", "Brand", "Available doses");
+        for (Vaccine vaccine : result.getVaccines()) {
+            System.out.printf("%-20s%d\n", vaccine.getVaccineName(), vaccine.getAvailableDoses());
         }
     }
 
-    private static void reserve(String[] tokens) throws SQLException {
-        // reserve <date> <vaccine>
+    private static void reserve(String[] tokens) {
+        // reserve <date> <vaccine> [<request_key>]
         // Patients perform this operation to reserve an appointment.
-        // You will be randomly assigned a caregiver for the reservation on that date.
+        // You will be assigned a caregiver available on that date.
         // Output the assigned caregiver and the appointment ID for the reservation.
+        // Repeating the command with the same request key returns the same appointment instead of booking again.
 
-        // check 1: check if the current logged-in user is a patient
-        if (currentPatient == null) {
-            System.out.println("You must log in as patient to schedule an vaccine appointment");
-            return;
-        }
-        // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
-        if (tokens.length != 3) {
+        // check 1: the length for tokens need to be 3 or 4 to include all information (with the operation name)
+        if (tokens.length != 3 && tokens.length != 4) {
             System.out.println("Incorrect number of parameter passed.");
-            System.out.println("Usage: reserve <date> <vaccine>");
+            System.out.println("Usage: reserve <date> <vaccine> [<request_key>]");
             return;
         }
+        String requestKey = tokens.length == 4 ? tokens[3] : null;
 
-        // check 3: whether user enter correct date format
-        String date = tokens[1];
+        // check 2: whether user enter correct date format
+        Date date;
         try {
-            Date.valueOf(date);
+            date = Date.valueOf(tokens[1]);
         } catch (IllegalArgumentException e) {
             System.out.println("Please enter a valid date!");
-            System.out.println("Usage: reserve <date> <vaccine>");
+            System.out.println("Usage: reserve <date> <vaccine> [<request_key>]");
             return;
         }
 
-        // Step 1, find the next empty appointment ID
-        int nextAppointmentID = 1;
-        String queryMinAppointmentID = "SELECT MAX(AppointmentID) AS MaxAppointmentID FROM Appointments";
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        // Note: AppointmentID is a key
+        ReserveResult result;
         try {
-            PreparedStatement statement = con.prepareStatement(queryMinAppointmentID);
-            ResultSet resultSet = statement.executeQuery();
-            if (resultSet.next()) {
-                nextAppointmentID = resultSet.getInt("MaxAppointmentID") + 1;
-            }
+            result = await(service.reserve(session, date, tokens[2], requestKey));
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return;
         } catch (SQLException e) {
-            System.out.println("Error occurred while fetching current appointment information.");
+            System.out.println("Error occurred while confirming your COVID-19 vaccine appointment");
             return;
-        } finally {
-            cm.closeConnection();
         }
-
-        // Step 2, find whether vaccines available
-        Vaccine selectedVaccine = new Vaccine.VaccineGetter(tokens[2]).get();
-        if(selectedVaccine == null || selectedVaccine.getAvailableDoses() == 0) {
-            System.out.println("Sorry, we don't have vaccine " + tokens[2] + " available.");
-            return;
+        switch (result.getStatus()) {
+            case NO_DOSES -> System.out.println("Sorry, we don't have vaccine " + tokens[2] + " available.");
+            case NO_CAREGIVER -> System.out.println("Sorry, there are no caregiver available at " + tokens[1]);
+            case SCHEDULED -> System.out.println("Your COVID-19 vaccine on " + tokens[1] + " at "
+                    + result.getAppointment().getSlotStart() + " has been scheduled with caregiver "
+                    + result.getAppointment().getCaregiverUsername() + ", appointment ID " + result.getAppointment().getAppointmentId()
+                    + (result.getAppointment().getLotId() == null ? "" : ", lot " + result.getAppointment().getLotId()));
         }
+    }
 
-        // Step 3, find whether we have caregiver available on that time and remove his/her availability
-        // Note: if selected vaccine is not available, we won't reach this step.
-        Date selectedDate = Date.valueOf(tokens[1]);
-        String selectedCaregiver;
-        String queryAvailableCaregiver = "SELECT Username FROM Availabilities WHERE Time = ?";
-        ConnectionManager cm3 = new ConnectionManager();
-        Connection con3 = cm3.createConnection();
-
-        try {
-            PreparedStatement statement1 = con3.prepareStatement(queryAvailableCaregiver);
-            statement1.setDate(1, selectedDate);
-            ResultSet resultSet = statement1.executeQuery();
-
-            List<String> availableCaregivers = new ArrayList<>();
-            if(!resultSet.next()) {
-                System.out.println("Sorry, there are no caregiver available at " + tokens[1]);
-                return;
-            }
-            while(resultSet.next()) {
-                availableCaregivers.add(resultSet.getString("Username"));
-            }
-            // Select a random caregiver that are all available on this date
-            Random rand = new Random();
-            selectedCaregiver =  availableCaregivers.get(rand.nextInt(availableCaregivers.size()));
-        } catch (SQLException e) {
-            System.out.println("Error occurred while fetching caregiver availability.");
+    private static void reserveSeries(String[] tokens) {
+        // reserve_series <date> <vaccine>
+        // Patients book both doses of a two-dose vaccine: the first on the date, the second when it is due or the
+        // first day after that with a caregiver available. Either both are booked or neither.
+        if (tokens.length != 3) {
+            System.out.println("Incorrect number of parameter passed.");
+            System.out.println("Usage: reserve_series <date> <vaccine>");
             return;
-        } finally {
-            cm3.closeConnection();
         }
-
-        // Step 4, make an appointment
-        String addAppointment = "INSERT INTO Appointments VALUES (? , ? , ? , ? , ?,  0)";
-        ConnectionManager cm4 = new ConnectionManager();
-        Connection con4 = cm4.createConnection();
-
+        Date date;
         try {
-            PreparedStatement statement = con4.prepareStatement(addAppointment);
-            statement.setInt(1, nextAppointmentID);
-            statement.setDate(2, selectedDate);
-            statement.setString(3, selectedVaccine.getVaccineName());
-            statement.setString(4, currentPatient.getUsername());
-            statement.setString(5, selectedCaregiver);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            System.out.println("Error occurred while confirming your COVID-19 vaccine appointment");
+            date = Date.valueOf(tokens[1]);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Please enter a valid date!");
+            System.out.println("Usage: reserve_series <date> <vaccine>");
             return;
-        } finally {
-            cm4.closeConnection();
         }
 
-        // Step 5, remove this caregiver's availability
-        String removeCaregiverAvailability = "DELETE FROM Availabilities WHERE Time = ? AND Username = ? ";
-        ConnectionManager cm5 = new ConnectionManager();
-        Connection con5 = cm5.createConnection();
+        SeriesResult result;
         try {
-            PreparedStatement statement = con5.prepareStatement(removeCaregiverAvailability);
-            statement.setDate(1, selectedDate);
-            statement.setString(2, selectedCaregiver);
-            statement.executeUpdate();
+            result = await(service.reserveSeries(session, date, tokens[2]));
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return;
         } catch (SQLException e) {
-            System.out.println("Your appointment is confirmed, but we could not update your caregiver's new availability.");
+            System.out.println("Error occurred while confirming your COVID-19 vaccine appointments");
             return;
-        } finally {
-            cm5.closeConnection();
         }
-
-        // Step 6, decrease this vaccine's availability
-        selectedVaccine.decreaseAvailableDoses(1);
-
-        System.out.println("Your COVID-19 vaccine on " + tokens[1] + " has been scheduled");
+        switch (result.getStatus()) {
+            case NO_DOSES -> System.out.println("Sorry, we don't have two doses of vaccine " + tokens[2] + " available.");
+            case NO_CAREGIVER -> System.out.println("Sorry, there are no caregiver available at " + tokens[1]);
+            case NO_FOLLOW_UP -> System.out.println("Sorry, there are no caregiver available when the second dose of " + tokens[2] + " is due.");
+            case SINGLE_DOSE -> System.out.println("Vaccine " + tokens[2] + " takes a single dose, please use reserve.");
+            case SCHEDULED -> {
+                for (Appointment appointment : new Appointment[]{result.getFirst(), result.getSecond()}) {
+                    System.out.println("Your COVID-19 vaccine on " + appointment.getTime() + " at " + appointment.getSlotStart()
+                            + " has been scheduled with caregiver " + appointment.getCaregiverUsername() + ", appointment ID "
+                            + appointment.getAppointmentId() + (appointment.getLotId() == null ? "" : ", lot " + appointment.getLotId()));
+                }
+            }
+        }
     }
 
     private static void uploadAvailability(String[] tokens) {
         // upload_availability <date>
-        // check 1: check if the current logged-in user is a caregiver
-        if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
-            return;
-        }
-        // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
+        // check 1: the length for tokens need to be exactly 2 to include all information (with the operation name)
         if (tokens.length != 2) {
             System.out.println("Incorrect number of parameter passed.");
             System.out.println("Usage: upload_availability <date>");
             return;
         }
-        String date = tokens[1];
+        Date d;
         try {
-            Date d = Date.valueOf(date);
-            currentCaregiver.uploadAvailability(d);
-            System.out.println("Availability uploaded!");
+            d = Date.valueOf(tokens[1]);
         } catch (IllegalArgumentException e) {
             System.out.println("Please enter a valid date!");
+            return;
+        }
+        try {
+            await(service.uploadAvailability(session, d));
+            System.out.println("Availability uploaded!");
+        } catch (IllegalStateException e) {
+            System.out.println(e.getMessage());
         } catch (SQLException e) {
             System.out.println("Error occurred when uploading availability");
             e.printStackTrace();
         }
     }
 
-    private static void cancel(String[] tokens) throws SQLException {
-        // cancel <appointment_id>
-        // check 1: check if the current logged-in user is a caregiver or patient
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("You must log in as caregiver or patient to cancel appointments");
-            return;
-        }
-
-        // check 2: the length for tokens need to be exactly 1 to include all information (with the operation name)
-        if (tokens.length != 2) {
+    private static void cancel(String[] tokens) {
+        // cancel <appointment_id> [<request_key>]
+        // check 1: the length for tokens need to be 2 or 3 to include all information (with the operation name)
+        if (tokens.length != 2 && tokens.length != 3) {
             System.out.println("Incorrect number of parameter passed.");
-            System.out.println("cancel <appointment_id>");
+            System.out.println("cancel <appointment_id> [<request_key>]");
             return;
         }
-        Date selectedDate;
-        String selectedCaregiver;
-        String selectedVaccineString;
-
-        // Step 1: Query whether the appointment is present and not marked as cancelled (Cancelled = 1)
-        String queryCurrAppointments = "SELECT AppointmentID, Time, CaregiverUsername, VaccineName FROM Appointments WHERE AppointmentID = ? AND Cancelled = 0";
-
-        // Query current appointment
-        ConnectionManager cm1 = new ConnectionManager();
-        Connection con1 = cm1.createConnection();
+        String requestKey = tokens.length == 3 ? tokens[2] : null;
+        int appointmentID;
         try {
-            PreparedStatement queryAppointment = con1.prepareStatement(queryCurrAppointments);
-            queryAppointment.setInt(1, Integer.parseInt(tokens[1]));
-            ResultSet appointmentResults = queryAppointment.executeQuery();
-            if(!appointmentResults.next()) {
-                System.out.println("Appointment with ID of " + tokens[1] + " is either not scheduled or already cancelled");
-                return;
-            }
-            selectedCaregiver = appointmentResults.getString("CaregiverUsername");
-            selectedVaccineString = appointmentResults.getString("VaccineName");
-            selectedDate = appointmentResults.getDate("Time");
-        } catch (SQLException e) {
-            System.out.println("Error occurred while fetching currently-booked appointments.");
+            appointmentID = Integer.parseInt(tokens[1]);
+        } catch (NumberFormatException e) {
+            System.out.println("Please enter a valid appointment ID!");
             return;
-        } finally {
-            cm1.closeConnection();
         }
 
-        // Step 2, increase this vaccine availability by 1
-        Vaccine selectedVaccine = new Vaccine.VaccineGetter(selectedVaccineString).get();
-        selectedVaccine.increaseAvailableDoses(1);
-
-        // Step 3, add this caregiver back to availability
-        String insertCaregiverAvailability = "INSERT INTO Availabilities VALUES (?, ?)";
-
-        // Query current appointment
-        ConnectionManager cm2 = new ConnectionManager();
-        Connection con2 = cm2.createConnection();
+        CancelResult result;
         try {
-            PreparedStatement queryAppointment = con2.prepareStatement(insertCaregiverAvailability);
-            queryAppointment.setDate(1, selectedDate);
-            queryAppointment.setString(2, selectedCaregiver);
-            queryAppointment.executeUpdate();
+            result = await(service.cancel(session, appointmentID, requestKey));
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return;
         } catch (SQLException e) {
-            System.out.println("Error occurred while updating caregiver's availability after cancellation");
+            System.out.println("Error occurred while cancelling the appointment.");
             return;
-        } finally {
-            cm2.closeConnection();
         }
-
-        // Step 4, set the Cancel to one
-        String updateCancellationMark = "UPDATE Appointments SET Cancelled = 1 WHERE AppointmentID = " + Integer.parseInt(tokens[1]);
-
-        // Query current appointment
-        ConnectionManager cm4 = new ConnectionManager();
-        Connection con4 = cm4.createConnection();
-        try {
-            PreparedStatement queryAppointment = con4.prepareStatement(updateCancellationMark);
-            queryAppointment.executeUpdate();
-        } catch (SQLException e) {
-            System.out.println("Error occurred while finalizing the appointment cancellation.");
+        if (result.getStatus() == CancelResult.Status.NOT_FOUND) {
+            System.out.println("Appointment with ID of " + tokens[1] + " is either not scheduled, already cancelled or not yours");
             return;
-        } finally {
-            cm4.closeConnection();
         }
 
         System.out.println("Your COVID-19 vaccine with appointment ID of " + tokens[1] + " has been canceled");
+        if (result.getStatus() == CancelResult.Status.CANCELLED_DOSE_NOT_RETURNED) {
+            System.out.println("We could not return the dose to the vaccine inventory.");
+        }
     }
 
     private static void addDoses(String[] tokens) {
-        // add_doses <vaccine> <number>
-        // check 1: check if the current logged-in user is a caregiver
-        if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
-            return;
-        }
-        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
-        if (tokens.length != 3) {
+        // add_doses <vaccine> <number> [<lot> <expiry>]
+        // check 1: the length for tokens need to be 3, or 5 with a lot and its expiry date
+        if (tokens.length != 3 && tokens.length != 5) {
             System.out.println("Please try again!");
             return;
         }
         String vaccineName = tokens[1];
-        int doses = parseInt(tokens[2]);
-        Vaccine vaccine = null;
+        int doses;
         try {
-            vaccine = new Vaccine.VaccineGetter(vaccineName).get();
-        } catch (SQLException e) {
-            System.out.println("Error occurred when adding doses");
-            e.printStackTrace();
+            doses = parseInt(tokens[2]);
+        } catch (NumberFormatException e) {
+            System.out.println("Please enter a valid number of doses!");
+            return;
         }
-        // check 3: if getter returns null, it means that we need to create the vaccine and insert it into the Vaccines
-        //          table
-        if (vaccine == null) {
-            try {
-                vaccine = new Vaccine.VaccineBuilder(vaccineName, doses).build();
-                vaccine.saveToDB();
-            } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
-                e.printStackTrace();
-            }
-        } else {
-            // if the vaccine is not null, meaning that the vaccine already exists in our table
+        String lotId = null;
+        Date expiry = null;
+        if (tokens.length == 5) {
+            lotId = tokens[3];
             try {
-                vaccine.increaseAvailableDoses(doses);
-            } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
-                e.printStackTrace();
+                expiry = Date.valueOf(tokens[4]);
+            } catch (IllegalArgumentException e) {
+                System.out.println("Please enter a valid expiry date!");
+                return;
             }
         }
+        try {
+            await(service.addDoses(session, vaccineName, doses, lotId, expiry));
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return;
+        } catch (SQLException e) {
+            System.out.println("Error occurred when adding doses");
+            e.printStackTrace();
+            return;
+        }
         System.out.println("Doses updated!");
     }
 
@@ -574,64 +545,220 @@ public class Scheduler {
         //	For caregivers, you should print the appointment ID, vaccine name, date, and patient name.
         //	For patients, you should print the appointment ID, vaccine name, date, and caregiver name.
 
-        if (tokens.length != 1) {
-            System.out.println("Warning: Command show_appointment does not require any argument, ignoring all arguments passed here\n");
+        //  With include_archived, appointments moved to the archive are listed too.
+        boolean includeArchived = tokens.length == 2 && tokens[1].equals("include_archived");
+        if (tokens.length != 1 && !includeArchived) {
+            System.out.println("Warning: Command show_appointment only accepts include_archived, ignoring all arguments passed here\n");
         }
 
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("You must log in as caregiver or patient to show appointments");
+        List<Appointment> appointments;
+        try {
+            appointments = await(service.showAppointments(session, includeArchived));
+        } catch (IllegalStateException e) {
+            System.out.println(e.getMessage());
+            return;
+        } catch (SQLException e) {
+            System.out.println("Error occurred while fetching vaccine inventory.");
             return;
         }
 
-        final boolean isCaregiver = (currentCaregiver != null);
-        String selectedName = "";
-        String queryCurrAppointments = "";
-        // Print all appointment for current caregiver when logged in as a caregiver
-        if (currentCaregiver != null) {
-            System.out.println("Showing all patients appointments for " + currentCaregiver.getUsername());
-            selectedName = currentCaregiver.getUsername();
-            queryCurrAppointments = "SELECT AppointmentID, Time, VaccineName, PatientUsername FROM Appointments WHERE CaregiverUsername = ? AND Cancelled = 0";
-        } else if (currentPatient != null) {
+        final boolean isCaregiver = (session.getCaregiver() != null);
+        final String selectedName = isCaregiver ? session.getCaregiver().getUsername() : session.getPatient().getUsername();
+        if (isCaregiver) {
+            System.out.println("Showing all patients appointments for " + selectedName);
+        } else {
             System.out.println("Showing your COVID-19 vaccine appointments");
-            selectedName = currentPatient.getUsername();
-            queryCurrAppointments = "SELECT AppointmentID, Time, VaccineName, CaregiverUsername FROM Appointments WHERE PatientUsername = ? AND Cancelled = 0";
         }
+        if (appointments.isEmpty()) {
+            System.out.println("You don't have any appointment scheduled for " + (isCaregiver ? "Caregiver": "Patient") + " " + selectedName);
+            return;
+        }
+        System.out.printf("%-20s%-20s%-20s%s\n", "Appointment ID", "Time", "Vaccine Name", (isCaregiver ? "Patient": "Caregiver"));
+        for (Appointment appointment : appointments) {
+            String time = appointment.getTime().toString()
+                    + (appointment.getSlot() == Appointment.WHOLE_DAY ? "" : " " + appointment.getSlotStart());
+            System.out.printf("%-20d%-20s%-20s%s\n", appointment.getAppointmentId(), time, appointment.getVaccineName(),
+                    isCaregiver ? appointment.getPatientUsername() : appointment.getCaregiverUsername());
+        }
+    }
+
+    private static void logout(String[] tokens) {
+        if (tokens.length != 1) {
+            System.out.println("Warning: Command logout does not require any argument, ignoring all arguments passed here\n");
+        }
+
+        service.logout(session);
+        System.out.println("Logout successfully");
+    }
 
-        // Query appointment
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+    private static void report(String[] tokens) {
+        // report daily <date> <outdir>
+        // writes <caregiver>.csv and <caregiver>.json with the appointments of that date for every caregiver
+        if (tokens.length != 4 || !tokens[1].equals("daily")) {
+            System.out.println("Incorrect number of parameter passed.");
+            System.out.println("Usage: report daily <date> <outdir>");
+            return;
+        }
+        Date d;
         try {
-            PreparedStatement queryAppointment = con.prepareStatement(queryCurrAppointments);
-            queryAppointment.setString(1, selectedName);
-            ResultSet appointmentResults = queryAppointment.executeQuery();
-            boolean isFound = false;
-            boolean printHeader = true;
-            while (appointmentResults.next()) {
-                if(printHeader) {
-                    System.out.printf("%-20s%-20s%-20s%s\n", "Appointment ID", "Time", "Vaccine Name", (isCaregiver ? "Patient": "Caregiver"));
-                    printHeader = false;
-                }
-                System.out.printf("%-20d%-20s%-20s%s\n", appointmentResults.getInt("AppointmentID"), appointmentResults.getDate("Time").toString(), appointmentResults.getString("VaccineName"), appointmentResults.getString(isCaregiver?  "PatientUsername": "CaregiverUsername") );
-                isFound = true;
+            d = Date.valueOf(tokens[2]);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Please enter a valid date!");
+            return;
+        }
+        ReportResult result;
+        try {
+            result = await(service.dailyReport(session, d, Path.of(tokens[3])));
+        } catch (IllegalStateException e) {
+            System.out.println(e.getMessage());
+            return;
+        } catch (SQLException e) {
+            System.out.println("Error occurred when writing the daily report");
+            return;
+        }
+        switch (result.getStatus()) {
+            case WRITTEN -> System.out.println(" *** Wrote " + result.getAppointments() + " appointments of " + result.getCaregivers()
+                    + " caregivers to " + result.getOutDir() + " in " + result.getElapsedMillis() + " ms *** ");
+            case FAILED -> {
+                System.out.println("Error occurred when writing the daily report");
+                result.getError().printStackTrace();
+            }
+        }
+    }
+
+    private static void planCampaign(String[] tokens) {
+        // plan_campaign <patients-file> <start> <end> <vaccine>
+        // books every patient listed in the file for the vaccine on a day between start and end
+        if (tokens.length != 5) {
+            System.out.println("Incorrect number of parameter passed.");
+            System.out.println("Usage: plan_campaign <patients-file> <start> <end> <vaccine>");
+            return;
+        }
+        Path file = Path.of(tokens[1]);
+        if (!Files.isReadable(file)) {
+            System.out.println("Cannot read file " + tokens[1]);
+            return;
+        }
+        Date start;
+        Date end;
+        try {
+            start = Date.valueOf(tokens[2]);
+            end = Date.valueOf(tokens[3]);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Please enter a valid date!");
+            return;
+        }
+        if (end.before(start)) {
+            System.out.println("The end date cannot be before the start date!");
+            return;
+        }
+        CampaignResult result;
+        try {
+            result = await(service.planCampaign(session, file, start, end, tokens[4]));
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            System.out.println(e.getMessage());
+            return;
+        } catch (SQLException e) {
+            System.out.println("We've encountered issue when planning the campaign.");
+            return;
+        }
+        switch (result.getStatus()) {
+            case PLANNED -> {
+                System.out.println(" *** Assigned " + result.getAssigned() + " of " + result.getPatientsRead() + " patients over "
+                        + result.getDays() + " days, " + result.getRejected() + " rejected (see " + result.getRejectFile() + ") *** ");
+                System.out.printf("Planned in %d ms, written in %d ms (%.0f appointments/s)\n", result.getPlanMillis(),
+                        result.getWriteMillis(), result.getWriteMillis() > 0 ? result.getAssigned() * 1000.0 / result.getWriteMillis() : 0.0);
             }
-            if(!isFound) {
-                System.out.println("You don't have any appointment scheduled for " + (isCaregiver ? "Caregiver": "Patient") + " " + selectedName);
+            case FAILED -> {
+                System.out.println("We've encountered issue when planning the campaign, " + result.getAssigned() + " patients were assigned before the error.");
+                result.getError().printStackTrace();
             }
+        }
+    }
+
+    private static void statsUtilization(String[] tokens) {
+        // stats_utilization <start> <end>
+        // Booked, cancelled and added doses per vaccine for every day from start to end, from the usage counters
+        if (tokens.length != 3) {
+            System.out.println("Incorrect number of parameter passed.");
+            System.out.println("Usage: stats_utilization <start> <end>");
+            return;
+        }
+        Date start;
+        Date end;
+        try {
+            start = Date.valueOf(tokens[1]);
+            end = Date.valueOf(tokens[2]);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Please enter a valid date!");
+            return;
+        }
+        if (end.before(start)) {
+            System.out.println("The end date cannot be before the start date!");
+            return;
+        }
+
+        UtilizationResult result;
+        try {
+            result = await(service.utilization(session, start, end));
+        } catch (IllegalStateException e) {
+            System.out.println(e.getMessage());
+            return;
         } catch (SQLException e) {
-            System.out.println("Error occurred while fetching vaccine inventory.");
+            System.out.println("Error occurred while fetching vaccine utilization.");
             return;
-        } finally {
-            cm.closeConnection();
+        }
+
+        if (result.getUsage().isEmpty()) {
+            System.out.println("No doses were booked, cancelled or added between " + tokens[1] + " and " + tokens[2]);
+        } else {
+            System.out.printf("%-20s%-20s%-12s%-12s%-12s%s\n", "Day", "Vaccine Name", "Booked", "Cancelled", "Net", "Added");
+            for (VaccineUsage usage : result.getUsage()) {
+                System.out.printf("%-20s%-20s%-12d%-12d%-12d%d\n", usage.getDay().toString(), usage.getVaccineName(), usage.getBooked(),
+                        usage.getCancelled(), usage.getBooked() - usage.getCancelled(), usage.getAdded());
+            }
+        }
+        System.out.println();
+        System.out.printf("%-20s%s\n", "Brand", "Remaining doses");
+        for (Vaccine vaccine : result.getVaccines()) {
+            System.out.printf("%-20s%d\n", vaccine.getVaccineName(), vaccine.getAvailableDoses());
         }
     }
 
-    private static void logout(String[] tokens) {
+    private static void metrics(String[] tokens) {
         if (tokens.length != 1) {
-            System.out.println("Warning: Command logout does not require any argument, ignoring all arguments passed here\n");
+            System.out.println("Warning: Command metrics does not require any argument, ignoring all arguments passed here\n");
         }
+        admission.printStats();
+        Retry.printStats();
+        Archiver.printStats();
+        AuditLog.printStats();
+    }
 
-        currentPatient = null;
-        currentCaregiver = null;
-        System.out.println("Logout successfully");
+    private static void trace(String[] tokens) {
+        // trace <on|off>
+        // on: print the spans of every following command, not only of slow ones
+        if (tokens.length != 2 || !(tokens[1].equals("on") || tokens[1].equals("off"))) {
+            System.out.println("Usage: trace <on|off>");
+            return;
+        }
+        Trace.setInteractive(tokens[1].equals("on"));
+        System.out.println("Tracing is " + tokens[1]);
+    }
+
+    // Waits for a service call, rethrowing what it failed with
+    private static <T> T await(CompletableFuture<T> future) throws SQLException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw e;
+        }
     }
 }
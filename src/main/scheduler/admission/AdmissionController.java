@@ -0,0 +1,255 @@
+package scheduler.admission;
+
+import scheduler.util.Util;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Limits how many commands run at once, so that a burst of PBKDF2-heavy logins cannot take all the CPU and database
+// connections away from reserve and cancel.
+//
+// A command runs when both its own limit and the global limit have room. Otherwise it waits in a bounded queue
+// ordered by priority (reserve/cancel first, logins and account creation last) for at most the queue timeout.
+// When the queue is full a new command is rejected at once, unless it outranks the lowest-priority waiter, which
+// is then rejected in its place.
+//
+// AdmissionMaxConcurrent (default 4 x cores), AdmissionQueueSize (default 64), AdmissionTimeoutMillis (default 2000)
+// and AdmissionLimits (e.g. "login_patient:2,reserve:32") tune the limits. Anything typed that is not a command is
+// counted and limited as OTHER, so typos cannot grow the tables.
+public class AdmissionController {
+    // the commands of the command line, see Scheduler
+    public static final Set<String> COMMANDS = Set.of("create_patient", "create_caregiver", "import_accounts",
+            "login_patient", "login_caregiver", "resume", "search_caregiver_schedule", "reserve", "reserve_series",
+            "upload_availability", "cancel", "add_doses", "show_appointments", "logout", "report", "plan_campaign",
+            "stats_utilization", "metrics", "trace");
+    public static final String OTHER = "other";
+
+    public enum Priority {
+        HIGH,
+        NORMAL,
+        LOW
+    }
+
+    public static class RejectedException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public RejectedException(String message) {
+            super(message);
+        }
+    }
+
+    // Returned by acquire(), close it when the command is done
+    public class Permit implements AutoCloseable {
+        private final String command;
+        private boolean released = false;
+
+        private Permit(String command) {
+            this.command = command;
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                release(command);
+            }
+        }
+    }
+
+    private static class Waiter implements Comparable<Waiter> {
+        private final String command;
+        private final Priority priority;
+        private final long sequence;
+        private final Condition condition;
+        private boolean granted = false;
+        private boolean evicted = false;
+
+        private Waiter(String command, Priority priority, long sequence, Condition condition) {
+            this.command = command;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.condition = condition;
+        }
+
+        @Override
+        public int compareTo(Waiter other) {
+            int byPriority = priority.compareTo(other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private static class CommandStats {
+        private final LongAdder admitted = new LongAdder();
+        private final LongAdder queued = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder timedOut = new LongAdder();
+    }
+
+    private final int maxConcurrent;
+    private final int queueCapacity;
+    private final long timeoutNanos;
+    private final Map<String, Integer> commandLimits;
+    private final int defaultCommandLimit;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final TreeSet<Waiter> waiters = new TreeSet<>();
+    private final Map<String, Integer> running = new TreeMap<>();
+    private int runningTotal = 0;
+    private long nextSequence = 0;
+    private int maxQueueDepth = 0;
+
+    private final Map<String, CommandStats> stats = new ConcurrentHashMap<>();
+
+    public AdmissionController(int maxConcurrent, int queueCapacity, long timeoutMillis, Map<String, Integer> commandLimits) {
+        this.maxConcurrent = maxConcurrent;
+        this.queueCapacity = queueCapacity;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.commandLimits = commandLimits;
+        this.defaultCommandLimit = maxConcurrent;
+    }
+
+    public static AdmissionController fromEnv() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        Map<String, Integer> limits = new TreeMap<>();
+        // hashing is CPU bound, more of them at once than there are cores only adds latency
+        for (String command : new String[]{"login_patient", "login_caregiver", "create_patient", "create_caregiver"}) {
+            limits.put(command, cores);
+        }
+        limits.put("import_accounts", 1);
+        limits.put("report", 1);
+        limits.put("plan_campaign", 1);
+        String configured = System.getenv("AdmissionLimits");
+        if (configured != null) {
+            for (String entry : configured.split(",")) {
+                String[] parts = entry.trim().split(":");
+                if (parts.length == 2) {
+                    limits.put(parts[0].trim(), (int) Util.parseLong(parts[1], cores));
+                }
+            }
+        }
+        return new AdmissionController(
+                (int) Util.getenvLong("AdmissionMaxConcurrent", 4L * cores),
+                (int) Util.getenvLong("AdmissionQueueSize", 64),
+                Util.getenvLong("AdmissionTimeoutMillis", 2000),
+                limits);
+    }
+
+    public static Priority priorityOf(String command) {
+        return switch (command) {
+            case "reserve", "reserve_series", "cancel" -> Priority.HIGH;
+            case "login_patient", "login_caregiver", "create_patient", "create_caregiver", "import_accounts", "report",
+                 "plan_campaign" -> Priority.LOW;
+            default -> Priority.NORMAL;
+        };
+    }
+
+    public Permit acquire(String typed) throws RejectedException {
+        String command = COMMANDS.contains(typed) ? typed : OTHER;
+        CommandStats commandStats = stats.computeIfAbsent(command, k -> new CommandStats());
+        lock.lock();
+        try {
+            if (fits(command)) {
+                start(command);
+                commandStats.admitted.increment();
+                return new Permit(command);
+            }
+            Waiter waiter = new Waiter(command, priorityOf(command), nextSequence++, lock.newCondition());
+            if (waiters.size() >= queueCapacity) {
+                Waiter lowest = waiters.isEmpty() ? null : waiters.last();
+                if (lowest == null || lowest.compareTo(waiter) < 0) {
+                    commandStats.rejected.increment();
+                    throw new RejectedException("Too many requests waiting, " + command + " rejected");
+                }
+                waiters.remove(lowest);
+                lowest.evicted = true;
+                lowest.condition.signal();
+            }
+            waiters.add(waiter);
+            commandStats.queued.increment();
+            maxQueueDepth = Math.max(maxQueueDepth, waiters.size());
+
+            long remaining = timeoutNanos;
+            while (!waiter.granted && !waiter.evicted && remaining > 0) {
+                try {
+                    remaining = waiter.condition.awaitNanos(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    if (waiter.granted) {
+                        release(command);
+                    }
+                    waiters.remove(waiter);
+                    throw new RejectedException("Interrupted while waiting to run " + command);
+                }
+            }
+            if (waiter.granted) {
+                commandStats.admitted.increment();
+                return new Permit(command);
+            }
+            waiters.remove(waiter);
+            if (waiter.evicted) {
+                commandStats.rejected.increment();
+                throw new RejectedException("Too many requests waiting, " + command + " rejected");
+            }
+            commandStats.timedOut.increment();
+            throw new RejectedException("Timed out waiting to run " + command);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(String command) {
+        lock.lock();
+        try {
+            running.merge(command, -1, Integer::sum);
+            runningTotal--;
+            // hand the freed capacity to the highest-priority waiters that fit
+            for (Waiter waiter : waiters.toArray(new Waiter[0])) {
+                if (runningTotal >= maxConcurrent) {
+                    break;
+                }
+                if (fits(waiter.command)) {
+                    waiters.remove(waiter);
+                    start(waiter.command);
+                    waiter.granted = true;
+                    waiter.condition.signal();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean fits(String command) {
+        return runningTotal < maxConcurrent
+                && running.getOrDefault(command, 0) < commandLimits.getOrDefault(command, defaultCommandLimit);
+    }
+
+    private void start(String command) {
+        running.merge(command, 1, Integer::sum);
+        runningTotal++;
+    }
+
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return waiters.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void printStats() {
+        System.out.println("Admission control: queue depth " + getQueueDepth() + " (max " + maxQueueDepth + " of "
+                + queueCapacity + "), " + maxConcurrent + " concurrent commands allowed");
+        System.out.printf("  %-28s%-10s%-10s%-10s%s\n", "Command", "Admitted", "Queued", "Rejected", "Timed out");
+        new TreeMap<>(stats).forEach((command, s) -> System.out.printf("  %-28s%-10d%-10d%-10d%d\n",
+                command, s.admitted.sum(), s.queued.sum(), s.rejected.sum(), s.timedOut.sum()));
+    }
+}
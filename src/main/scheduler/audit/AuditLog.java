@@ -0,0 +1,200 @@
+package scheduler.audit;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.Retry;
+import scheduler.util.Util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Audit trail of reserve, cancel, upload_availability and add_doses, kept off the path of the commands.
+//
+// record() only copies the event into a preallocated ring (AuditBufferSize slots, default 8192) and returns; if the
+// ring is full the event is dropped and counted. One background thread drains the ring every AuditFlushMillis
+// (default 200), or as soon as it is half full, and writes up to AuditBatchSize (default 500) events at a time to
+// the AuditLog table of the home database, or with AuditSink=file to a daily file audit-<date>.log in AuditDir
+// (default "audit").
+public class AuditLog {
+    public enum Action {
+        RESERVE,
+        CANCEL,
+        UPLOAD_AVAILABILITY,
+        ADD_DOSES
+    }
+
+    private static final AuditRing ring = new AuditRing((int) Util.getenvLong("AuditBufferSize", 8192));
+    private static final int batchSize = (int) Util.getenvLong("AuditBatchSize", 500);
+    private static final long flushNanos = TimeUnit.MILLISECONDS.toNanos(Util.getenvLong("AuditFlushMillis", 200));
+    private static final boolean toFile = "file".equals(System.getenv("AuditSink"));
+    private static final Path dir = Path.of(System.getenv("AuditDir") == null ? "audit" : System.getenv("AuditDir"));
+
+    private static final LongAdder published = new LongAdder();
+    private static final LongAdder dropped = new LongAdder();
+    private static final LongAdder written = new LongAdder();
+    private static final LongAdder failed = new LongAdder();
+    private static final LongAdder publishNanos = new LongAdder();
+    private static final LongAccumulator maxPublishNanos = new LongAccumulator(Long::max, 0);
+
+    private static volatile boolean closing = false;
+    private static final Thread consumer = startConsumer();
+
+    // Unused arguments are -1 or null
+    public static void record(Action action, String username, int appointmentId, Date day, String vaccineName, int doses) {
+        long start = System.nanoTime();
+        boolean accepted = ring.publish(System.currentTimeMillis(), action, username, appointmentId, day, vaccineName, doses);
+        long elapsed = System.nanoTime() - start;
+        publishNanos.add(elapsed);
+        maxPublishNanos.accumulate(elapsed);
+        if (accepted) {
+            published.increment();
+        } else {
+            dropped.increment();
+        }
+        // a burst: do not let the writer sleep until the ring is full
+        if (ring.pending() > ring.capacity() / 2) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    // Writes what is still in the ring, waiting at most timeoutMillis
+    public static void close(long timeoutMillis) {
+        closing = true;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static void printStats() {
+        long count = published.sum() + dropped.sum();
+        System.out.println("Audit events: " + published.sum() + " published, " + dropped.sum() + " dropped, "
+                + written.sum() + " written, " + failed.sum() + " failed to write, " + ring.pending() + " pending");
+        System.out.println("  publish latency: avg " + (count == 0 ? 0 : publishNanos.sum() / count) + " ns, max "
+                + maxPublishNanos.get() + " ns");
+    }
+
+    private static Thread startConsumer() {
+        Thread thread = new Thread(AuditLog::consume, "audit-writer");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static void consume() {
+        AuditRing.Event[] batch = new AuditRing.Event[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            batch[i] = new AuditRing.Event();
+        }
+        long next = 0;
+        while (true) {
+            int n = 0;
+            AuditRing.Event event;
+            while (n < batchSize && (event = ring.peek(next)) != null) {
+                copy(event, batch[n++]);
+                next++;
+            }
+            if (n > 0) {
+                // the slots can be reused while the batch is being written
+                ring.release(next);
+                flush(batch, n);
+            }
+            if (n < batchSize) {
+                if (closing && ring.pending() == 0) {
+                    return;
+                }
+                LockSupport.parkNanos(flushNanos);
+            }
+        }
+    }
+
+    private static void copy(AuditRing.Event from, AuditRing.Event to) {
+        to.timeMillis = from.timeMillis;
+        to.action = from.action;
+        to.username = from.username;
+        to.appointmentId = from.appointmentId;
+        to.day = from.day;
+        to.vaccineName = from.vaccineName;
+        to.doses = from.doses;
+    }
+
+    private static void flush(AuditRing.Event[] batch, int n) {
+        try {
+            if (toFile) {
+                writeFile(batch, n);
+            } else {
+                Retry.run("audit", () -> {
+                    writeTable(batch, n);
+                    return null;
+                });
+            }
+            written.add(n);
+        } catch (IOException | SQLException e) {
+            failed.add(n);
+        }
+    }
+
+    private static void writeTable(AuditRing.Event[] batch, int n) throws SQLException {
+        // straight to the home primary, these writes are not something later reads have to see
+        try (Connection con = ConnectionManager.getHomeShard().getPrimary().open()) {
+            con.setAutoCommit(false);
+            String addEvent = "INSERT INTO AuditLog (EventTime, Action, Username, AppointmentID, Day, VaccineName, Doses) " +
+                    "VALUES (?, ?, ?, ?, ?, ?, ?)";
+            PreparedStatement statement = con.prepareStatement(addEvent);
+            for (int i = 0; i < n; i++) {
+                AuditRing.Event event = batch[i];
+                statement.setTimestamp(1, new Timestamp(event.timeMillis));
+                statement.setString(2, event.action.name());
+                statement.setString(3, event.username);
+                if (event.appointmentId < 0) {
+                    statement.setNull(4, Types.INTEGER);
+                } else {
+                    statement.setInt(4, event.appointmentId);
+                }
+                statement.setDate(5, event.day);
+                statement.setString(6, event.vaccineName);
+                if (event.doses < 0) {
+                    statement.setNull(7, Types.INTEGER);
+                } else {
+                    statement.setInt(7, event.doses);
+                }
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            Retry.commit(con);
+        }
+    }
+
+    // One tab separated line per event, in the file of the day the batch is written
+    private static void writeFile(AuditRing.Event[] batch, int n) throws IOException {
+        Files.createDirectories(dir);
+        Path file = dir.resolve("audit-" + LocalDate.now() + ".log");
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (int i = 0; i < n; i++) {
+                AuditRing.Event event = batch[i];
+                writer.write(Instant.ofEpochMilli(event.timeMillis) + "\t" + event.action + "\t" + event.username + "\t"
+                        + (event.appointmentId < 0 ? "" : event.appointmentId) + "\t" + (event.day == null ? "" : event.day) + "\t"
+                        + (event.vaccineName == null ? "" : event.vaccineName) + "\t" + (event.doses < 0 ? "" : event.doses));
+                writer.newLine();
+            }
+        }
+    }
+}
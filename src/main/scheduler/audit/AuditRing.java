@@ -0,0 +1,82 @@
+package scheduler.audit;
+
+import java.sql.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Fixed-capacity multi-producer, single-consumer ring of preallocated events. Producers claim a sequence number
+// with one CAS, fill the slot in place and publish it by storing the sequence in the slot's marker; they never
+// block and never allocate. When the consumer is a full ring behind, the event is dropped instead.
+class AuditRing {
+    // One preallocated slot, overwritten in place
+    static final class Event {
+        long timeMillis;
+        AuditLog.Action action;
+        String username;
+        int appointmentId;
+        Date day;
+        String vaccineName;
+        int doses;
+    }
+
+    private final Event[] events;
+    private final int mask;
+    // published[i] is the sequence of the event in slot i once it is fully written
+    private final AtomicLongArray published;
+    // next sequence to hand to a producer
+    private final AtomicLong head = new AtomicLong();
+    // next sequence the consumer will read, slots below it may be reused
+    private final AtomicLong tail = new AtomicLong();
+
+    AuditRing(int minCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(minCapacity - 1, 1)) << 1;
+        events = new Event[capacity];
+        published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            events[i] = new Event();
+            published.set(i, -1);
+        }
+        mask = capacity - 1;
+    }
+
+    int capacity() {
+        return events.length;
+    }
+
+    // Returns false if the ring is full
+    boolean publish(long timeMillis, AuditLog.Action action, String username, int appointmentId, Date day, String vaccineName, int doses) {
+        long sequence;
+        do {
+            sequence = head.get();
+            if (sequence - tail.get() >= events.length) {
+                return false;
+            }
+        } while (!head.compareAndSet(sequence, sequence + 1));
+        int index = (int) (sequence & mask);
+        Event event = events[index];
+        event.timeMillis = timeMillis;
+        event.action = action;
+        event.username = username;
+        event.appointmentId = appointmentId;
+        event.day = day;
+        event.vaccineName = vaccineName;
+        event.doses = doses;
+        published.set(index, sequence);
+        return true;
+    }
+
+    // Consumer side: the event at the given sequence, or null if it is not published yet
+    Event peek(long sequence) {
+        int index = (int) (sequence & mask);
+        return published.get(index) == sequence ? events[index] : null;
+    }
+
+    // Consumer side: gives the slots below the sequence back to the producers
+    void release(long sequence) {
+        tail.set(sequence);
+    }
+
+    long pending() {
+        return head.get() - tail.get();
+    }
+}
@@ -0,0 +1,287 @@
+package scheduler.batch;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.Retry;
+import scheduler.util.Util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+
+// Bulk-creates patient and caregiver accounts from a CSV file of "<patient|caregiver>,<username>,<password>" rows.
+// The file is streamed in chunks: while one chunk is being written to the database, the password checks and
+// PBKDF2 hashes of the next chunk are computed in parallel on a fork-join pool.
+public class AccountImporter {
+
+    // SQL Server accepts at most 2100 parameters per statement, so the username lookups stay well below that
+    private static final int CHUNK_SIZE = 1000;
+
+    private final Path inputFile;
+    private final Path rejectFile;
+    private final ForkJoinPool pool;
+
+    // usernames already seen in this file, per table, so duplicates inside the file are rejected up front
+    private final Set<String> seenPatients = new HashSet<>();
+    private final Set<String> seenCaregivers = new HashSet<>();
+
+    private long rowsRead = 0;
+    private long rowsImported = 0;
+    private long rowsRejected = 0;
+
+    public AccountImporter(Path inputFile) {
+        this(inputFile, Runtime.getRuntime().availableProcessors());
+    }
+
+    public AccountImporter(Path inputFile, int parallelism) {
+        this.inputFile = inputFile;
+        this.rejectFile = inputFile.resolveSibling(inputFile.getFileName() + ".rejects.csv");
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    public long getRowsRead() {
+        return rowsRead;
+    }
+
+    public long getRowsImported() {
+        return rowsImported;
+    }
+
+    public long getRowsRejected() {
+        return rowsRejected;
+    }
+
+    public Path getRejectFile() {
+        return rejectFile;
+    }
+
+    public void run() throws IOException, SQLException {
+        long start = System.nanoTime();
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (BufferedReader reader = Files.newBufferedReader(inputFile, StandardCharsets.UTF_8);
+             BufferedWriter rejects = Files.newBufferedWriter(rejectFile, StandardCharsets.UTF_8)) {
+            rejects.write("line,role,username,reason");
+            rejects.newLine();
+            con.setAutoCommit(false);
+
+            ForkJoinTask<List<Row>> pending = null;
+            List<Row> chunk;
+            while (!(chunk = readChunk(reader, rejects)).isEmpty()) {
+                // hash the next chunk while the previous one is being written
+                List<Row> toHash = chunk;
+                ForkJoinTask<List<Row>> next = pool.submit(() -> toHash.parallelStream().map(Row::prepare).collect(Collectors.toList()));
+                if (pending != null) {
+                    writeChunk(con, join(pending), rejects);
+                    printProgress(start);
+                }
+                pending = next;
+            }
+            if (pending != null) {
+                writeChunk(con, join(pending), rejects);
+            }
+            printProgress(start);
+        } finally {
+            pool.shutdown();
+            cm.closeConnection();
+        }
+    }
+
+    private List<Row> readChunk(BufferedReader reader, BufferedWriter rejects) throws IOException {
+        List<Row> chunk = new ArrayList<>(CHUNK_SIZE);
+        String line;
+        while (chunk.size() < CHUNK_SIZE && (line = reader.readLine()) != null) {
+            rowsRead++;
+            if (line.isBlank() || (rowsRead == 1 && line.toLowerCase().startsWith("role,"))) {
+                continue;
+            }
+            String[] fields = line.split(",", -1);
+            if (fields.length != 3 || fields[1].isEmpty()) {
+                reject(rejects, new Row(rowsRead, "", "", ""), "malformed row");
+                continue;
+            }
+            Row row = new Row(rowsRead, fields[0].trim().toLowerCase(), fields[1].trim(), fields[2]);
+            if (!row.role.equals("patient") && !row.role.equals("caregiver")) {
+                reject(rejects, row, "unknown role");
+                continue;
+            }
+            if (!(row.isCaregiver() ? seenCaregivers : seenPatients).add(row.username)) {
+                reject(rejects, row, "duplicate username in file");
+                continue;
+            }
+            chunk.add(row);
+        }
+        return chunk;
+    }
+
+    private void writeChunk(Connection con, List<Row> rows, BufferedWriter rejects) throws IOException, SQLException {
+        List<Row> patients = new ArrayList<>();
+        List<Row> caregivers = new ArrayList<>();
+        for (Row row : rows) {
+            if (row.hash == null) {
+                reject(rejects, row, "weak password");
+            } else {
+                (row.isCaregiver() ? caregivers : patients).add(row);
+            }
+        }
+        patients = dropExisting(con, patients, "Patients", rejects);
+        caregivers = dropExisting(con, caregivers, "Caregivers", rejects);
+
+        try {
+            insertBatch(con, patients, "Patients");
+            insertBatch(con, caregivers, "Caregivers");
+            con.commit();
+            rowsImported += patients.size() + caregivers.size();
+        } catch (SQLException e) {
+            con.rollback();
+            if (!Retry.isDuplicateKey(e)) {
+                throw e;
+            }
+            // someone else created one of these usernames in the meantime, redo this chunk row by row
+            insertOneByOne(con, patients, "Patients", rejects);
+            insertOneByOne(con, caregivers, "Caregivers", rejects);
+        }
+    }
+
+    private List<Row> dropExisting(Connection con, List<Row> rows, String table, BufferedWriter rejects) throws IOException, SQLException {
+        if (rows.isEmpty()) {
+            return rows;
+        }
+        String placeholders = String.join(",", Collections.nCopies(rows.size(), "?"));
+        String selectUsernames = "SELECT Username FROM " + table + " WHERE Username IN (" + placeholders + ")";
+        Set<String> existing = new HashSet<>();
+        try (PreparedStatement statement = con.prepareStatement(selectUsernames)) {
+            for (int i = 0; i < rows.size(); i++) {
+                statement.setString(i + 1, rows.get(i).username);
+            }
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                existing.add(resultSet.getString("Username"));
+            }
+        }
+        if (existing.isEmpty()) {
+            return rows;
+        }
+        List<Row> remaining = new ArrayList<>(rows.size());
+        for (Row row : rows) {
+            if (existing.contains(row.username)) {
+                reject(rejects, row, "username taken");
+            } else {
+                remaining.add(row);
+            }
+        }
+        return remaining;
+    }
+
+    private void insertBatch(Connection con, List<Row> rows, String table) throws SQLException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement statement = con.prepareStatement("INSERT INTO " + table + " VALUES (? , ?, ?)")) {
+            for (Row row : rows) {
+                statement.setString(1, row.username);
+                statement.setBytes(2, row.salt);
+                statement.setBytes(3, row.hash);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    private void insertOneByOne(Connection con, List<Row> rows, String table, BufferedWriter rejects) throws IOException, SQLException {
+        try (PreparedStatement statement = con.prepareStatement("INSERT INTO " + table + " VALUES (? , ?, ?)")) {
+            for (Row row : rows) {
+                statement.setString(1, row.username);
+                statement.setBytes(2, row.salt);
+                statement.setBytes(3, row.hash);
+                try {
+                    statement.executeUpdate();
+                    con.commit();
+                    rowsImported++;
+                } catch (SQLException e) {
+                    con.rollback();
+                    if (!Retry.isDuplicateKey(e)) {
+                        throw e;
+                    }
+                    reject(rejects, row, "username taken");
+                }
+            }
+        }
+    }
+
+    private void reject(BufferedWriter rejects, Row row, String reason) throws IOException {
+        // never write the password to the reject file
+        rowsRejected++;
+        rejects.write(row.lineNumber + "," + row.role + "," + row.username + "," + reason);
+        rejects.newLine();
+    }
+
+    private void printProgress(long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Processed %d rows: %d imported, %d rejected (%.0f rows/s)\n",
+                rowsRead, rowsImported, rowsRejected, seconds > 0 ? rowsRead / seconds : 0.0);
+    }
+
+    private static List<Row> join(ForkJoinTask<List<Row>> task) throws IOException, SQLException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Import interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Could not hash the passwords of a chunk", cause);
+        }
+    }
+
+    private static class Row {
+        private final long lineNumber;
+        private final String role;
+        private final String username;
+        private String password;
+        private byte[] salt;
+        private byte[] hash;
+
+        private Row(long lineNumber, String role, String username, String password) {
+            this.lineNumber = lineNumber;
+            this.role = role;
+            this.username = username;
+            this.password = password;
+        }
+
+        private boolean isCaregiver() {
+            return role.equals("caregiver");
+        }
+
+        // runs on the fork-join pool; leaves hash null when the password is rejected
+        private Row prepare() {
+            if (Util.isStrongPasswd(password)) {
+                salt = Util.generateSalt();
+                hash = Util.generateHash(password, salt);
+            }
+            password = null;
+            return this;
+        }
+    }
+}
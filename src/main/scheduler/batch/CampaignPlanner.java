@@ -0,0 +1,615 @@
+package scheduler.batch;
+
+import scheduler.audit.AuditLog;
+import scheduler.db.ConnectionManager;
+import scheduler.db.NameIds;
+import scheduler.db.Retry;
+import scheduler.db.Shard;
+import scheduler.db.ShardRouter;
+import scheduler.model.Availability;
+import scheduler.model.Vaccine;
+import scheduler.model.VaccineLot;
+import scheduler.model.VaccineUsage;
+import scheduler.util.TimeSlots;
+import scheduler.util.Util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+// Books a vaccination campaign: every patient listed in a file (one username per line, or the first column of a
+// CSV) gets an appointment for the vaccine between two dates, in one pass instead of one reserve per patient.
+//
+// Caregiver availability over the window and the vaccine's inventory are read once. Patients are spread over the
+// days in proportion to each day's free slots, and doses are given to the days in date order from the lot expiring
+// first that is still valid, as reserve does. Each day's patients are then assigned in parallel, one day per task,
+// always to the caregiver with the most free slots left so that the load stays balanced. The plan is written in
+// transactions of CampaignChunkSize (default 500) appointments with batched statements. A chunk whose slots or
+// doses were taken by someone else meanwhile is rolled back and its patients go to the reject file, which can be
+// given to plan_campaign again.
+public class CampaignPlanner {
+
+    // SQL Server accepts at most 2100 parameters per statement, so the username lookups stay well below that
+    private static final int LOOKUP_CHUNK_SIZE = 1000;
+    private static final int chunkSize = (int) Util.getenvLong("CampaignChunkSize", 500);
+
+    private final Path patientsFile;
+    private final Path rejectFile;
+    private final Date start;
+    private final Date end;
+    private final String vaccineName;
+    private final ForkJoinPool pool;
+
+    private long patientsRead = 0;
+    private long assigned = 0;
+    private long rejected = 0;
+    private int days = 0;
+    private long planMillis = 0;
+    private long writeMillis = 0;
+
+    public CampaignPlanner(Path patientsFile, Date start, Date end, String vaccineName) {
+        this.patientsFile = patientsFile;
+        this.rejectFile = patientsFile.resolveSibling(patientsFile.getFileName() + ".rejects.csv");
+        this.start = start;
+        this.end = end;
+        this.vaccineName = vaccineName;
+        this.pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    // Getters
+    public long getPatientsRead() {
+        return patientsRead;
+    }
+
+    public long getAssigned() {
+        return assigned;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    // days of the window with free slots
+    public int getDays() {
+        return days;
+    }
+
+    public long getPlanMillis() {
+        return planMillis;
+    }
+
+    public long getWriteMillis() {
+        return writeMillis;
+    }
+
+    public Path getRejectFile() {
+        return rejectFile;
+    }
+
+    // Throws IllegalArgumentException if the vaccine does not exist
+    public CampaignPlanner run() throws IOException, SQLException {
+        long startNanos = System.nanoTime();
+        try (BufferedWriter rejects = Files.newBufferedWriter(rejectFile, StandardCharsets.UTF_8)) {
+            rejects.write("username,reason");
+            rejects.newLine();
+            Inventory inventory = loadInventory();
+            List<String> patients = readPatients(rejects);
+            List<Day> window = loadAvailability();
+            days = window.size();
+            plan(window, patients, inventory, rejects);
+            long plannedNanos = System.nanoTime();
+            planMillis = (plannedNanos - startNanos) / 1000000;
+            write(window, rejects);
+            writeMillis = (System.nanoTime() - plannedNanos) / 1000000;
+        } finally {
+            pool.shutdown();
+        }
+        return this;
+    }
+
+    // The patients of the file in file order, without duplicates and unknown usernames
+    private List<String> readPatients(BufferedWriter rejects) throws IOException, SQLException {
+        Set<String> usernames = new LinkedHashSet<>();
+        try (BufferedReader reader = Files.newBufferedReader(patientsFile, StandardCharsets.UTF_8)) {
+            String line;
+            boolean firstLine = true;
+            while ((line = reader.readLine()) != null) {
+                String username = line.split(",", -1)[0].trim();
+                boolean header = firstLine && username.equalsIgnoreCase("username");
+                firstLine = false;
+                if (username.isEmpty() || header) {
+                    continue;
+                }
+                patientsRead++;
+                if (!usernames.add(username)) {
+                    reject(rejects, username, "duplicate username in file");
+                }
+            }
+        }
+        List<String> all = new ArrayList<>(usernames);
+        List<String> known = new ArrayList<>(all.size());
+        ConnectionManager cm = new ConnectionManager(ConnectionManager.Route.READ);
+        Connection con = cm.createConnection();
+        try {
+            for (int from = 0; from < all.size(); from += LOOKUP_CHUNK_SIZE) {
+                List<String> chunk = all.subList(from, Math.min(from + LOOKUP_CHUNK_SIZE, all.size()));
+                String placeholders = String.join(",", Collections.nCopies(chunk.size(), "?"));
+                PreparedStatement statement = con.prepareStatement("SELECT Username FROM Patients WHERE Username IN (" + placeholders + ")");
+                for (int i = 0; i < chunk.size(); i++) {
+                    statement.setString(i + 1, chunk.get(i));
+                }
+                ResultSet resultSet = statement.executeQuery();
+                Set<String> existing = new HashSet<>();
+                while (resultSet.next()) {
+                    existing.add(resultSet.getString("Username"));
+                }
+                for (String username : chunk) {
+                    if (existing.contains(username)) {
+                        known.add(username);
+                    } else {
+                        reject(rejects, username, "no such patient");
+                    }
+                }
+            }
+        } finally {
+            cm.closeConnection();
+        }
+        return known;
+    }
+
+    // The doses of the vaccine, read from the primary of the home database
+    private Inventory loadInventory() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            PreparedStatement statement = con.prepareStatement("SELECT Doses FROM Vaccines WHERE Name = ?");
+            statement.setString(1, vaccineName);
+            ResultSet resultSet = statement.executeQuery();
+            if (!resultSet.next()) {
+                throw new IllegalArgumentException("Vaccine " + vaccineName + " does not exist!");
+            }
+            return new Inventory(resultSet.getInt("Doses"), VaccineLot.forVaccine(con, vaccineName));
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // The days of the window with free slots, in date order, read from every shard in parallel
+    private List<Day> loadAvailability() throws SQLException {
+        String queryWindow = "SELECT Time, CaregiverID, Slots FROM Availabilities WHERE Time BETWEEN ? AND ? AND Slots <> 0 " +
+                "ORDER BY Time, CaregiverID";
+        List<Availability> availabilities = ShardRouter.scatterGather(ConnectionManager.Route.PRIMARY, con -> {
+            PreparedStatement statement = con.prepareStatement(queryWindow);
+            statement.setDate(1, start);
+            statement.setDate(2, end);
+            ResultSet resultSet = statement.executeQuery();
+            List<Availability> found = new ArrayList<>();
+            while (resultSet.next()) {
+                int caregiverId = resultSet.getInt("CaregiverID");
+                found.add(new Availability.AvailabilityBuilder(resultSet.getDate("Time"), caregiverId,
+                        NameIds.CAREGIVERS.name(caregiverId), resultSet.getLong("Slots")).build());
+            }
+            return found;
+        }, Comparator.comparing(Availability::getTime).thenComparingInt(Availability::getCaregiverId));
+        List<Day> window = new ArrayList<>();
+        for (Availability availability : availabilities) {
+            if (window.isEmpty() || !window.get(window.size() - 1).date.equals(availability.getTime())) {
+                window.add(new Day(availability.getTime()));
+            }
+            window.get(window.size() - 1).add(availability);
+        }
+        return window;
+    }
+
+    // Decides how many patients and which doses each day gets, then assigns caregivers and slots day by day in parallel
+    private void plan(List<Day> window, List<String> patients, Inventory inventory, BufferedWriter rejects) throws IOException, SQLException {
+        long capacity = 0;
+        for (Day day : window) {
+            capacity += day.capacity;
+        }
+        int total = (int) Math.min(patients.size(), capacity);
+
+        // largest remainder: each day gets its share of the patients, in proportion to its free slots
+        int[] target = new int[window.size()];
+        long[] remainder = new long[window.size()];
+        int given = 0;
+        for (int i = 0; i < window.size(); i++) {
+            long share = (long) total * window.get(i).capacity;
+            target[i] = (int) (share / capacity);
+            remainder[i] = share % capacity;
+            given += target[i];
+        }
+        List<Integer> byRemainder = new ArrayList<>();
+        for (int i = 0; i < window.size(); i++) {
+            byRemainder.add(i);
+        }
+        byRemainder.sort(Comparator.comparingLong((Integer i) -> remainder[i]).reversed().thenComparingInt(i -> i));
+        for (int k = 0; given < total; k++) {
+            target[byRemainder.get(k)]++;
+            given++;
+        }
+
+        // doses in date order, so a lot expiring early is used before it expires
+        int next = 0;
+        boolean outOfDoses = false;
+        for (int i = 0; i < window.size() && !outOfDoses; i++) {
+            Day day = window.get(i);
+            for (int k = 0; k < target[i]; k++) {
+                if (!inventory.take(day.date)) {
+                    outOfDoses = true;
+                    break;
+                }
+                day.patients.add(patients.get(next++));
+                day.lotIds.add(inventory.lastLotId);
+            }
+        }
+        for (int i = next; i < patients.size(); i++) {
+            // the first total patients had a slot
+            reject(rejects, patients.get(i), i < total ? "no dose left" : "no free slot");
+        }
+
+        try {
+            pool.submit(() -> window.parallelStream().forEach(Day::assign)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Campaign planning interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    // Writes the plan in chunks, each on the shard of its days
+    private void write(List<Day> window, BufferedWriter rejects) throws IOException, SQLException {
+        long startNanos = System.nanoTime();
+        List<Assignment> chunk = new ArrayList<>(chunkSize);
+        Shard chunkShard = null;
+        for (Day day : window) {
+            for (Assignment assignment : day.assignments) {
+                if (!chunk.isEmpty() && (chunk.size() == chunkSize || day.shard != chunkShard)) {
+                    writeChunk(chunkShard, chunk, rejects);
+                    printProgress(startNanos);
+                    chunk = new ArrayList<>(chunkSize);
+                }
+                chunkShard = day.shard;
+                chunk.add(assignment);
+            }
+        }
+        if (!chunk.isEmpty()) {
+            writeChunk(chunkShard, chunk, rejects);
+            printProgress(startNanos);
+        }
+    }
+
+    private void writeChunk(Shard shard, List<Assignment> planned, BufferedWriter rejects) throws IOException, SQLException {
+        // the rows hold IDs, resolved before anything is taken; a patient removed since the file was read is rejected
+        int vaccineId = NameIds.VACCINES.requireId(vaccineName);
+        List<Assignment> chunk = new ArrayList<>(planned.size());
+        for (Assignment assignment : planned) {
+            assignment.patientId = NameIds.PATIENTS.id(assignment.patient);
+            if (assignment.patientId == NameIds.MISSING) {
+                reject(rejects, assignment.patient, "no such patient");
+            } else {
+                chunk.add(assignment);
+            }
+        }
+        if (chunk.isEmpty()) {
+            return;
+        }
+        try {
+            // repeated if it loses a deadlock or a concurrent reserve took one of the appointment IDs
+            Retry.run("plan_campaign", () -> {
+                writeOnce(shard, chunk, vaccineId);
+                return null;
+            }, Retry.DUPLICATE_KEY);
+        } catch (SlotsTakenException e) {
+            for (Assignment assignment : chunk) {
+                reject(rejects, assignment.patient, "slot or dose taken meanwhile");
+            }
+            return;
+        }
+        assigned += chunk.size();
+        for (Assignment assignment : chunk) {
+            AuditLog.record(AuditLog.Action.RESERVE, assignment.patient, assignment.appointmentId, assignment.day.date, vaccineName, 1);
+        }
+    }
+
+    // One attempt at a chunk, in one transaction on its shard. The doses are taken in the same transaction when the
+    // shard is the home database, and in a transaction of their own on the home database before otherwise. Throws
+    // SlotsTakenException if a slot or dose is gone.
+    private void writeOnce(Shard shard, List<Assignment> chunk, int vaccineId) throws SQLException {
+        boolean onHome = shard == ConnectionManager.getHomeShard();
+        if (!onHome) {
+            inHomeTransaction(con -> takeDoses(con, chunk));
+        }
+        ConnectionManager cm = new ConnectionManager(shard, ConnectionManager.Route.PRIMARY);
+        Connection con = cm.createConnection();
+        try {
+            con.setAutoCommit(false);
+            if (onHome) {
+                takeDoses(con, chunk);
+            }
+            takeSlots(con, chunk);
+            insertAppointments(con, shard, chunk, vaccineId);
+            Retry.commit(con);
+        } catch (SlotsTakenException | SQLException e) {
+            con.rollback();
+            if (!onHome && !(e instanceof Retry.CommitOutcomeUnknownException)) {
+                // the appointments were not booked, give the doses back on the home database
+                try {
+                    inHomeTransaction(home -> returnDoses(home, chunk));
+                } catch (SlotsTakenException | SQLException compensation) {
+                    e.addSuppressed(compensation);
+                }
+            }
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private interface HomeUpdate {
+        void run(Connection con) throws SQLException;
+    }
+
+    private static void inHomeTransaction(HomeUpdate update) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            con.setAutoCommit(false);
+            update.run(con);
+            Retry.commit(con);
+        } catch (SlotsTakenException | SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private void takeDoses(Connection con, List<Assignment> chunk) throws SQLException {
+        Map<String, Integer> byLot = countByLot(chunk);
+        if (!byLot.isEmpty()) {
+            PreparedStatement lotStatement = con.prepareStatement("UPDATE VaccineLots SET Quantity = Quantity - ? WHERE LotID = ? AND Quantity >= ?");
+            for (Map.Entry<String, Integer> lot : byLot.entrySet()) {
+                lotStatement.setInt(1, lot.getValue());
+                lotStatement.setString(2, lot.getKey());
+                lotStatement.setInt(3, lot.getValue());
+                lotStatement.addBatch();
+            }
+            expectEveryRow(lotStatement.executeBatch());
+        }
+        // with the lots already taken, what is left of the total must still cover every lot, expired ones included
+        PreparedStatement vaccineStatement = con.prepareStatement("UPDATE Vaccines SET Doses = Doses - ? WHERE Name = ? AND " +
+                "Doses - ? >= (SELECT COALESCE(SUM(Quantity), 0) FROM VaccineLots WHERE VaccineName = ?)");
+        vaccineStatement.setInt(1, chunk.size());
+        vaccineStatement.setString(2, vaccineName);
+        vaccineStatement.setInt(3, chunk.size());
+        vaccineStatement.setString(4, vaccineName);
+        expectEveryRow(new int[]{vaccineStatement.executeUpdate()});
+        for (Map.Entry<Date, Integer> day : countByDay(chunk).entrySet()) {
+            VaccineUsage.record(con, day.getKey(), vaccineName, day.getValue(), 0, 0);
+        }
+    }
+
+    private void returnDoses(Connection con, List<Assignment> chunk) throws SQLException {
+        PreparedStatement lotStatement = con.prepareStatement("UPDATE VaccineLots SET Quantity = Quantity + ? WHERE LotID = ?");
+        for (Map.Entry<String, Integer> lot : countByLot(chunk).entrySet()) {
+            lotStatement.setInt(1, lot.getValue());
+            lotStatement.setString(2, lot.getKey());
+            lotStatement.addBatch();
+        }
+        lotStatement.executeBatch();
+        new Vaccine.VaccineBuilder(vaccineName, 0).build().increaseAvailableDoses(con, chunk.size());
+        for (Map.Entry<Date, Integer> day : countByDay(chunk).entrySet()) {
+            VaccineUsage.record(con, day.getKey(), vaccineName, -day.getValue(), 0, 0);
+        }
+    }
+
+    // Clears the planned slots of every caregiver, only if they are all still free
+    private static void takeSlots(Connection con, List<Assignment> chunk) throws SQLException {
+        Map<Availability, Long> taken = new LinkedHashMap<>();
+        for (Assignment assignment : chunk) {
+            taken.merge(assignment.caregiver, TimeSlots.bit(assignment.slot), (a, b) -> a | b);
+        }
+        PreparedStatement statement = con.prepareStatement("UPDATE Availabilities SET Slots = Slots & ~? " +
+                "WHERE Time = ? AND CaregiverID = ? AND (Slots & ?) = ?");
+        for (Map.Entry<Availability, Long> caregiver : taken.entrySet()) {
+            statement.setLong(1, caregiver.getValue());
+            statement.setDate(2, caregiver.getKey().getTime());
+            statement.setInt(3, caregiver.getKey().getCaregiverId());
+            statement.setLong(4, caregiver.getValue());
+            statement.setLong(5, caregiver.getValue());
+            statement.addBatch();
+        }
+        expectEveryRow(statement.executeBatch());
+    }
+
+    private void insertAppointments(Connection con, Shard shard, List<Assignment> chunk, int vaccineId) throws SQLException {
+        // the lock keeps the IDs ours until the chunk commits, a concurrent reserve then retries with the next ID
+        ResultSet resultSet = con.prepareStatement("SELECT MAX(AppointmentID) AS MaxAppointmentID FROM Appointments WITH (UPDLOCK, HOLDLOCK)").executeQuery();
+        int appointmentId = resultSet.next() ? resultSet.getInt("MaxAppointmentID") : 0;
+        PreparedStatement statement = con.prepareStatement("INSERT INTO Appointments " +
+                "(AppointmentID, Time, VaccineID, PatientID, CaregiverID, Cancelled, Slot, LotID) VALUES (?, ?, ?, ?, ?, 0, ?, ?)");
+        for (Assignment assignment : chunk) {
+            appointmentId = ShardRouter.nextAppointmentId(shard, appointmentId);
+            assignment.appointmentId = appointmentId;
+            statement.setInt(1, appointmentId);
+            statement.setDate(2, assignment.day.date);
+            statement.setInt(3, vaccineId);
+            statement.setInt(4, assignment.patientId);
+            statement.setInt(5, assignment.caregiver.getCaregiverId());
+            statement.setInt(6, assignment.slot);
+            statement.setString(7, assignment.lotId);
+            statement.addBatch();
+        }
+        statement.executeBatch();
+    }
+
+    private static void expectEveryRow(int[] updateCounts) {
+        for (int count : updateCounts) {
+            if (count == 0) {
+                throw new SlotsTakenException();
+            }
+        }
+    }
+
+    private static Map<String, Integer> countByLot(List<Assignment> chunk) {
+        Map<String, Integer> byLot = new LinkedHashMap<>();
+        for (Assignment assignment : chunk) {
+            if (assignment.lotId != null) {
+                byLot.merge(assignment.lotId, 1, Integer::sum);
+            }
+        }
+        return byLot;
+    }
+
+    private static Map<Date, Integer> countByDay(List<Assignment> chunk) {
+        Map<Date, Integer> byDay = new LinkedHashMap<>();
+        for (Assignment assignment : chunk) {
+            byDay.merge(assignment.day.date, 1, Integer::sum);
+        }
+        return byDay;
+    }
+
+    private void reject(BufferedWriter rejects, String username, String reason) throws IOException {
+        rejected++;
+        rejects.write(username + "," + reason);
+        rejects.newLine();
+    }
+
+    private void printProgress(long startNanos) {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        System.out.printf("Written %d appointments, %d rejected (%.0f appointments/s)\n",
+                assigned, rejected, seconds > 0 ? assigned / seconds : 0.0);
+    }
+
+    // A planned slot or dose was taken by someone else before the chunk was written
+    private static class SlotsTakenException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private SlotsTakenException() {
+            super("Slots or doses were taken meanwhile");
+        }
+    }
+
+    // The doses of the vaccine not handed out by the plan yet
+    private static class Inventory {
+        // lots by expiry
+        private final List<VaccineLot> lots;
+        private final int[] left;
+        private int withoutLot;
+        // first lot that may still be used, the days come in date order so expired lots are never looked at again
+        private int current = 0;
+        private String lastLotId;
+
+        private Inventory(int doses, List<VaccineLot> lots) {
+            this.lots = new ArrayList<>(lots);
+            this.lots.sort(Comparator.comparing(VaccineLot::getExpiry).thenComparing(VaccineLot::getLotId));
+            this.left = new int[lots.size()];
+            int inLots = 0;
+            for (int i = 0; i < this.lots.size(); i++) {
+                left[i] = this.lots.get(i).getQuantity();
+                inLots += left[i];
+            }
+            this.withoutLot = Math.max(doses - inLots, 0);
+        }
+
+        // Takes a dose valid on the date, from the lot expiring first, or one without a lot when no lot is left.
+        // Sets lastLotId, null for a dose without a lot. Returns false if there is none.
+        private boolean take(Date date) {
+            while (current < lots.size() && (left[current] == 0 || lots.get(current).getExpiry().before(date))) {
+                current++;
+            }
+            if (current < lots.size()) {
+                left[current]--;
+                lastLotId = lots.get(current).getLotId();
+                return true;
+            }
+            if (withoutLot > 0) {
+                withoutLot--;
+                lastLotId = null;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    // One day of the window: its caregivers, and the patients and doses the plan gives it
+    private static class Day {
+        private final Date date;
+        private final Shard shard;
+        private final List<Availability> caregivers = new ArrayList<>();
+        private int capacity = 0;
+        private final List<String> patients = new ArrayList<>();
+        private final List<String> lotIds = new ArrayList<>();
+        private final List<Assignment> assignments = new ArrayList<>();
+
+        private Day(Date date) {
+            this.date = date;
+            this.shard = ShardRouter.shardForDate(date);
+        }
+
+        private void add(Availability availability) {
+            caregivers.add(availability);
+            capacity += availability.getFreeSlotCount();
+        }
+
+        // Gives every patient the earliest free slot of the caregiver with the most free slots left
+        private void assign() {
+            long[] free = new long[caregivers.size()];
+            PriorityQueue<Integer> mostFree = new PriorityQueue<>(Comparator
+                    .comparingInt((Integer i) -> -TimeSlots.freeCount(free[i])).thenComparingInt(i -> i));
+            for (int i = 0; i < caregivers.size(); i++) {
+                free[i] = caregivers.get(i).getSlots();
+                mostFree.add(i);
+            }
+            for (int k = 0; k < patients.size(); k++) {
+                int i = mostFree.poll();
+                int slot = TimeSlots.firstFree(free[i]);
+                free[i] &= ~TimeSlots.bit(slot);
+                if (free[i] != 0) {
+                    mostFree.add(i);
+                }
+                assignments.add(new Assignment(this, patients.get(k), caregivers.get(i), slot, lotIds.get(k)));
+            }
+        }
+    }
+
+    private static class Assignment {
+        private final Day day;
+        private final String patient;
+        private final Availability caregiver;
+        private final int slot;
+        private final String lotId;
+        private int patientId;
+        private int appointmentId;
+
+        private Assignment(Day day, String patient, Availability caregiver, int slot, String lotId) {
+            this.day = day;
+            this.patient = patient;
+            this.caregiver = caregiver;
+            this.slot = slot;
+            this.lotId = lotId;
+        }
+    }
+}
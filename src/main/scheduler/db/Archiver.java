@@ -0,0 +1,93 @@
+package scheduler.db;
+
+import scheduler.util.Util;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.concurrent.atomic.LongAdder;
+
+// Moves cancelled appointments and appointments older than ArchiveRetentionDays (default 30) from Appointments to
+// AppointmentsArchive on every shard, so that the hot table only holds what is still bookable or cancellable.
+//
+// Runs on a background thread every ArchiveIntervalMillis (default 0, off), so that only the process started with it
+// set archives and not every CLI session. Rows are moved in batches of
+// ArchiveBatchSize (default 500), each its own short transaction that skips rows locked by reserve or cancel, with a
+// pause of ArchivePauseMillis (default 100) between batches so that the archiver never holds the table for long.
+public class Archiver {
+    private static final long intervalMillis = Util.getenvLong("ArchiveIntervalMillis", 0);
+    private static final long retentionDays = Util.getenvLong("ArchiveRetentionDays", 30);
+    private static final int batchSize = (int) Util.getenvLong("ArchiveBatchSize", 500);
+    private static final long pauseMillis = Util.getenvLong("ArchivePauseMillis", 100);
+
+    // The row with the highest ID stays, reserve derives the next ID from it
+    private static final String ARCHIVE_BATCH = "DELETE TOP (?) FROM Appointments WITH (ROWLOCK, READPAST) " +
+            "OUTPUT deleted.AppointmentID, deleted.Time, deleted.VaccineID, deleted.PatientID, " +
+            "deleted.CaregiverID, deleted.Cancelled, deleted.Slot, deleted.LotID " +
+            "INTO AppointmentsArchive (AppointmentID, Time, VaccineID, PatientID, CaregiverID, Cancelled, Slot, LotID) " +
+            "WHERE (Cancelled = 1 OR Time < ?) AND AppointmentID < (SELECT MAX(AppointmentID) FROM Appointments)";
+
+    private static final LongAdder archived = new LongAdder();
+    private static final LongAdder batches = new LongAdder();
+    private static final LongAdder failures = new LongAdder();
+
+    public static Thread startInBackground() {
+        if (intervalMillis <= 0) {
+            return null;
+        }
+        Thread thread = new Thread(Archiver::loop, "archiver");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+        return thread;
+    }
+
+    private static void loop() {
+        try {
+            while (true) {
+                Thread.sleep(intervalMillis);
+                for (int i = 0; i < ShardRouter.shardCount(); i++) {
+                    try {
+                        archiveShard(ShardRouter.shard(i));
+                    } catch (SQLException e) {
+                        // tried again on the next round
+                        failures.increment();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Moves batches until a batch comes back short
+    static void archiveShard(Shard shard) throws SQLException, InterruptedException {
+        Date cutoff = Date.valueOf(LocalDate.now().minusDays(retentionDays));
+        int moved;
+        do {
+            // a fresh connection on every attempt, a retry must not reuse the one that failed
+            moved = Retry.run("archive", () -> {
+                ConnectionManager cm = new ConnectionManager(shard, ConnectionManager.Route.PRIMARY);
+                Connection con = cm.createConnection();
+                try {
+                    PreparedStatement statement = con.prepareStatement(ARCHIVE_BATCH);
+                    statement.setInt(1, batchSize);
+                    statement.setDate(2, cutoff);
+                    return statement.executeUpdate();
+                } finally {
+                    cm.closeConnection();
+                }
+            });
+            archived.add(moved);
+            batches.increment();
+            Thread.sleep(pauseMillis);
+        } while (moved == batchSize);
+    }
+
+    public static void printStats() {
+        System.out.println("Archived appointments: " + archived.sum() + " in " + batches.sum() + " batches, "
+                + failures.sum() + " failed rounds");
+    }
+}
@@ -1,20 +1,49 @@
 package scheduler.db;
 
+import scheduler.util.Util;
+
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 
 public class ConnectionManager {
 
-    private final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
-    private final String connectionUrl = "jdbc:sqlserver://" + System.getenv("Server") +
-            ".database.windows.net:1433;database=" + System.getenv("DBName");
-    private final String userName = System.getenv("UserID");
-    private final String userPass = System.getenv("Password");
+    // PRIMARY connections may write, READ connections are served by the read replica when one is configured
+    public enum Route {
+        PRIMARY,
+        READ
+    }
+
+    private static final String driverName = System.getenv("DriverName") != null ?
+            System.getenv("DriverName") : "com.microsoft.sqlserver.jdbc.SQLServerDriver";
 
+    // Primary: ConnectionUrl, or Server + DBName (+ UserID, Password)
+    // Replica: ReplicaConnectionUrl, or ReplicaServer (+ ReplicaDBName, ReplicaUserID, ReplicaPassword)
+    private static final Shard home = homeFromEnv();
+
+    // Reads within this window after our own last write go to the primary so that e.g. show_appointments right
+    // after reserve sees the new appointment even if the replica is lagging behind. There is one logged-in user
+    // per process, so the process is the session.
+    private static final long readYourWritesNanos = Util.getenvLong("ReplicaLagMillis", 5000) * 1_000_000L;
+
+    private final Shard shard;
+    private final Route route;
     private Connection con = null;
 
     public ConnectionManager() {
+        this(Route.PRIMARY);
+    }
+
+    public ConnectionManager(Route route) {
+        this(home, route);
+    }
+
+    public ConnectionManager(Shard shard, Route route) {
+        this.shard = shard;
+        this.route = route;
+    }
+
+    // The driver only needs to be loaded once per process, not on every new ConnectionManager
+    static {
         try {
             Class.forName(driverName);
         } catch (ClassNotFoundException e) {
@@ -22,20 +51,34 @@ public class ConnectionManager {
         }
     }
 
-    public Connection createConnection() {
-        try {
-            con = DriverManager.getConnection(connectionUrl, userName, userPass);
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+    // Connect failures propagate so that Retry can tell a lost connection (SQLState 08xxx) from other errors
+    public Connection createConnection() throws SQLException {
+        Endpoint endpoint = shard.select(route, readYourWritesNanos);
+        con = endpoint.open();
         return con;
     }
 
     public void closeConnection() {
+        if (this.con == null) {
+            return;
+        }
         try {
             this.con.close();
         } catch (SQLException e) {
             e.printStackTrace();
         }
     }
+
+    public static Shard getHomeShard() {
+        return home;
+    }
+
+    private static Shard homeFromEnv() {
+        Endpoint primary = Endpoint.fromEnv("primary", "", null);
+        if (primary == null) {
+            // keep the old behaviour of building a (broken) URL so that the error shows up on first use
+            primary = new Endpoint("primary", "jdbc:sqlserver://null.database.windows.net:1433;database=null", null, null);
+        }
+        return new Shard(0, primary, Endpoint.fromEnv("replica", "Replica", primary));
+    }
 }
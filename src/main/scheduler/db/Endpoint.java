@@ -0,0 +1,154 @@
+package scheduler.db;
+
+import scheduler.trace.Trace;
+import scheduler.util.Util;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// One database server that connections can be opened against, e.g. the primary or a read replica.
+// Closed connections are kept in a small idle pool (PoolMaxIdle, default 8) so that the next command does not pay for
+// the TCP and TLS handshake and the login again.
+public class Endpoint {
+    private static final int maxIdle = (int) Util.getenvLong("PoolMaxIdle", 8);
+    // idle connections older than this are checked with isValid() before being reused
+    private static final long validateAfterNanos = 30_000_000_000L;
+
+    private final String name;
+    private final String connectionUrl;
+    private final String userName;
+    private final String userPass;
+
+    private final ConcurrentLinkedDeque<IdleConnection> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    private static class IdleConnection {
+        private final Connection raw;
+        private final long since;
+
+        private IdleConnection(Connection raw) {
+            this.raw = raw;
+            this.since = System.nanoTime();
+        }
+    }
+
+    public Endpoint(String name, String connectionUrl, String userName, String userPass) {
+        this.name = name;
+        this.connectionUrl = withStatementPooling(connectionUrl);
+        this.userName = userName;
+        this.userPass = userPass;
+    }
+
+    // Builds an endpoint from environment variables: <prefix>ConnectionUrl wins if set (handy for pointing at a
+    // local database), otherwise the Azure URL is assembled from <prefix>Server and <prefix>DBName.
+    // Returns null if nothing is configured for this prefix.
+    static Endpoint fromEnv(String name, String prefix, Endpoint fallback) {
+        String url = System.getenv(prefix + "ConnectionUrl");
+        String server = System.getenv(prefix + "Server");
+        if (url == null && server == null) {
+            return null;
+        }
+        if (url == null) {
+            String dbName = System.getenv(prefix + "DBName");
+            url = "jdbc:sqlserver://" + server + ".database.windows.net:1433;database="
+                    + (dbName != null || fallback == null ? dbName : fallback.databaseName());
+        }
+        String user = System.getenv(prefix + "UserID");
+        String pass = System.getenv(prefix + "Password");
+        return new Endpoint(name, url,
+                user != null || fallback == null ? user : fallback.userName,
+                pass != null || fallback == null ? pass : fallback.userPass);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getConnectionUrl() {
+        return connectionUrl;
+    }
+
+    public Connection open() throws SQLException {
+        Trace.Span span = Trace.span("connect " + name);
+        try {
+            IdleConnection pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                idleCount.decrementAndGet();
+                if (System.nanoTime() - pooled.since < validateAfterNanos || pooled.raw.isValid(2)) {
+                    return PooledConnection.wrap(this, pooled.raw);
+                }
+                closeQuietly(pooled.raw);
+            }
+            return PooledConnection.wrap(this, connect());
+        } finally {
+            span.close();
+        }
+    }
+
+    // Opens connections until at least count are idle, used to warm the pool before the first command
+    public void fill(int count) throws SQLException {
+        while (idleCount.get() < Math.min(count, maxIdle)) {
+            release(connect());
+        }
+    }
+
+    public int getIdleCount() {
+        return idleCount.get();
+    }
+
+    private Connection connect() throws SQLException {
+        return DriverManager.getConnection(connectionUrl, userName, userPass);
+    }
+
+    // Puts a physical connection back into the idle pool, undoing whatever transaction state the user left behind
+    void release(Connection raw) {
+        try {
+            if (raw.isClosed()) {
+                return;
+            }
+            if (!raw.getAutoCommit()) {
+                raw.rollback();
+                raw.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            closeQuietly(raw);
+            return;
+        }
+        if (idleCount.incrementAndGet() > maxIdle) {
+            idleCount.decrementAndGet();
+            closeQuietly(raw);
+            return;
+        }
+        idle.addFirst(new IdleConnection(raw));
+    }
+
+    private static void closeQuietly(Connection raw) {
+        try {
+            raw.close();
+        } catch (SQLException e) {
+            // nothing left to clean up
+        }
+    }
+
+    // Lets the SQL Server driver reuse prepared statement handles across PreparedStatement objects on a pooled
+    // connection, so the hot statements are only prepared on the server once per connection
+    private static String withStatementPooling(String url) {
+        if (!url.startsWith("jdbc:sqlserver:") || url.contains("statementPoolingCacheSize")) {
+            return url;
+        }
+        return url + (url.endsWith(";") ? "" : ";") + "disableStatementPooling=false;statementPoolingCacheSize=64";
+    }
+
+    private String databaseName() {
+        int i = connectionUrl.indexOf("database=");
+        return i < 0 ? null : connectionUrl.substring(i + "database=".length()).split(";")[0];
+    }
+
+    @Override
+    public String toString() {
+        return name + "(" + connectionUrl + ")";
+    }
+}
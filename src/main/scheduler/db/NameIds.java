@@ -0,0 +1,126 @@
+package scheduler.db;
+
+import scheduler.util.NameDictionary;
+import scheduler.util.StringIntMap;
+import scheduler.util.Util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+// The surrogate IDs of caregivers, patients and vaccines. Availabilities and Appointments store these 4-byte IDs
+// instead of the names; the names are only looked up to show them.
+//
+// Each table's dictionary is read whole from the home database on first use (NameIdsExpectedSize, default 1024,
+// sizes the tables up front) and kept in the process. IDs never change once given, so the dictionary is never stale,
+// only incomplete: a name or ID it does not know, e.g. an account created since, is looked up on the primary and
+// added. Names are matched ignoring case, as the database does, and always shown as stored in the database.
+//
+// Rows are written with requireId(), so that a name that does not exist fails with its own error instead of writing
+// MISSING as a foreign key.
+public class NameIds {
+    // returned by id() for a name that does not exist
+    public static final int MISSING = StringIntMap.MISSING;
+
+    public static final NameIds CAREGIVERS = new NameIds("Caregivers", "Username", "caregiver");
+    public static final NameIds PATIENTS = new NameIds("Patients", "Username", "patient");
+    public static final NameIds VACCINES = new NameIds("Vaccines", "Name", "vaccine");
+
+    private static final int expectedSize = (int) Util.getenvLong("NameIdsExpectedSize", 1024);
+
+    private final String table;
+    private final String nameColumn;
+    // what a row is, for error messages
+    private final String kind;
+    private final NameDictionary dictionary = new NameDictionary(expectedSize);
+    private volatile boolean loaded = false;
+
+    private NameIds(String table, String nameColumn, String kind) {
+        this.table = table;
+        this.nameColumn = nameColumn;
+        this.kind = kind;
+    }
+
+    // The ID of the name; throws IllegalStateException if there is no such row, e.g. the account was removed
+    public int requireId(String name) throws SQLException {
+        int id = id(name);
+        if (id == MISSING) {
+            throw new IllegalStateException("There is no " + kind + " named " + name);
+        }
+        return id;
+    }
+
+    // The ID of the name, or MISSING if there is no such row
+    public int id(String name) throws SQLException {
+        load();
+        int id = dictionary.id(name);
+        if (id != MISSING) {
+            return id;
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            PreparedStatement statement = con.prepareStatement("SELECT ID, " + nameColumn + " FROM " + table + " WHERE " + nameColumn + " = ?");
+            statement.setString(1, name);
+            ResultSet resultSet = statement.executeQuery();
+            if (!resultSet.next()) {
+                return MISSING;
+            }
+            id = resultSet.getInt("ID");
+            // the stored name, the one asked for may differ in case
+            dictionary.put(resultSet.getString(nameColumn), id);
+            return id;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // The name with the ID, or null if there is no such row
+    public String name(int id) throws SQLException {
+        load();
+        String name = dictionary.name(id);
+        if (name != null) {
+            return name;
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            PreparedStatement statement = con.prepareStatement("SELECT " + nameColumn + " FROM " + table + " WHERE ID = ?");
+            statement.setInt(1, id);
+            ResultSet resultSet = statement.executeQuery();
+            if (!resultSet.next()) {
+                return null;
+            }
+            name = resultSet.getString(nameColumn);
+            dictionary.put(name, id);
+            return name;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Reads the whole table into the dictionary, once
+    public void load() throws SQLException {
+        if (loaded) {
+            return;
+        }
+        synchronized (this) {
+            if (loaded) {
+                return;
+            }
+            ConnectionManager cm = new ConnectionManager(ConnectionManager.Route.READ);
+            Connection con = cm.createConnection();
+            try {
+                PreparedStatement statement = con.prepareStatement("SELECT ID, " + nameColumn + " FROM " + table);
+                ResultSet resultSet = statement.executeQuery();
+                while (resultSet.next()) {
+                    dictionary.put(resultSet.getString(nameColumn), resultSet.getInt("ID"));
+                }
+                loaded = true;
+            } finally {
+                cm.closeConnection();
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package scheduler.db;
+
+import scheduler.trace.Trace;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+// The Connection handed out by Endpoint.open(). Closing it closes the statements created through it and gives the
+// physical connection back to the endpoint's idle pool instead of disconnecting. While a trace is active, commits
+// and rollbacks are recorded as spans and statements are handed out as TracedStatements.
+class PooledConnection implements InvocationHandler {
+    private final Endpoint endpoint;
+    private final Connection raw;
+    private final List<Statement> statements = new ArrayList<>();
+    private boolean closed = false;
+
+    private PooledConnection(Endpoint endpoint, Connection raw) {
+        this.endpoint = endpoint;
+        this.raw = raw;
+    }
+
+    static Connection wrap(Endpoint endpoint, Connection raw) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                new PooledConnection(endpoint, raw));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "close":
+                if (!closed) {
+                    closed = true;
+                    closeStatements();
+                    endpoint.release(raw);
+                }
+                return null;
+            case "isClosed":
+                return closed || raw.isClosed();
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "PooledConnection[" + endpoint.getName() + "]";
+            default:
+                break;
+        }
+        if (closed) {
+            throw new SQLException("Connection is closed");
+        }
+        Object result;
+        boolean ending = method.getName().equals("commit") || method.getName().equals("rollback");
+        Trace.Span span = ending ? Trace.span(method.getName()) : Trace.Span.NONE;
+        try {
+            result = method.invoke(raw, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        } finally {
+            span.close();
+        }
+        if (result instanceof Statement) {
+            statements.add((Statement) result);
+            if (Trace.current() != null) {
+                String sql = method.getName().startsWith("prepare") ? (String) args[0] : null;
+                return TracedStatement.wrap((Statement) result, method.getReturnType(), sql);
+            }
+        }
+        return result;
+    }
+
+    private void closeStatements() {
+        for (Statement statement : statements) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                // the connection is probably broken, release() will find out and drop it
+            }
+        }
+        statements.clear();
+    }
+}
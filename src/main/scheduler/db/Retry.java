@@ -0,0 +1,158 @@
+package scheduler.db;
+
+import scheduler.util.Util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+// Re-runs a database operation that failed because of contention or a transient connection problem, waiting a
+// jittered, exponentially growing delay between attempts. Every attempt must be a complete transaction that either
+// commits or leaves nothing behind, so that running it again is safe.
+//
+// RetryMaxAttempts (default 5), RetryBaseMillis (default 20), RetryMaxDelayMillis (default 1000) and
+// RetryBudgetMillis (default 5000, total time spent waiting) tune the policy.
+public class Retry {
+
+    // SQL Server / Azure SQL error numbers worth another attempt
+    public static final int DEADLOCK_VICTIM = 1205;
+    public static final int LOCK_TIMEOUT = 1222;
+    public static final int DUPLICATE_KEY = 2627;
+    public static final int DUPLICATE_INDEX_KEY = 2601;
+    private static final Set<Integer> RETRYABLE_ERRORS = Set.of(
+            DEADLOCK_VICTIM, LOCK_TIMEOUT,
+            // Azure SQL transient errors: service busy, database moved or reconfigured, resource limits
+            40197, 40501, 40613, 49918, 49919, 49920, 4221, 10928, 10929,
+            // connection dropped by the network or the server
+            233, 64, 10053, 10054, 10060);
+
+    private static final int maxAttempts = (int) Util.getenvLong("RetryMaxAttempts", 5);
+    private static final long baseMillis = Util.getenvLong("RetryBaseMillis", 20);
+    private static final long maxDelayMillis = Util.getenvLong("RetryMaxDelayMillis", 1000);
+    private static final long budgetMillis = Util.getenvLong("RetryBudgetMillis", 5000);
+
+    private static final LongAdder operations = new LongAdder();
+    private static final LongAdder retries = new LongAdder();
+    private static final LongAdder recovered = new LongAdder();
+    private static final LongAdder exhausted = new LongAdder();
+    private static final Map<Integer, LongAdder> retriesByError = new ConcurrentHashMap<>();
+
+    public interface SqlOperation<T> {
+        T run() throws SQLException;
+    }
+
+    // Thrown when the connection failed while committing: the transaction may or may not have been applied,
+    // so it is never retried automatically
+    public static class CommitOutcomeUnknownException extends SQLException {
+        private static final long serialVersionUID = 1L;
+
+        public CommitOutcomeUnknownException(SQLException cause) {
+            super("Connection failed while committing, the outcome is unknown", cause.getSQLState(), cause.getErrorCode(), cause);
+        }
+    }
+
+    // extraRetryableErrors adds errors that are only safe to retry for this operation, e.g. DUPLICATE_KEY when two
+    // nodes picked the same new appointment ID
+    public static <T> T run(String name, SqlOperation<T> operation, int... extraRetryableErrors) throws SQLException {
+        operations.increment();
+        long deadline = System.currentTimeMillis() + budgetMillis;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                T result = operation.run();
+                if (attempt > 1) {
+                    recovered.increment();
+                }
+                return result;
+            } catch (SQLException e) {
+                int error = retryableError(e, extraRetryableErrors);
+                if (error == 0) {
+                    throw e;
+                }
+                long delay = ThreadLocalRandom.current().nextLong(Math.min(maxDelayMillis, baseMillis << Math.min(attempt, 20)) + 1);
+                if (attempt >= maxAttempts || System.currentTimeMillis() + delay > deadline) {
+                    exhausted.increment();
+                    throw e;
+                }
+                retries.increment();
+                retriesByError.computeIfAbsent(error, k -> new LongAdder()).increment();
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    // Commits, turning a failure into CommitOutcomeUnknownException so that run() does not repeat a transaction
+    // that may already have been applied
+    public static void commit(Connection con) throws SQLException {
+        try {
+            con.commit();
+        } catch (SQLException e) {
+            throw new CommitOutcomeUnknownException(e);
+        }
+    }
+
+    public static boolean isRetryable(SQLException e) {
+        return retryableError(e) != 0;
+    }
+
+    // True if e, or an exception chained to it (e.g. by a batch), is a primary key or unique index violation
+    public static boolean isDuplicateKey(SQLException e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (!(t instanceof SQLException)) {
+                continue;
+            }
+            for (SQLException s = (SQLException) t; s != null; s = s.getNextException()) {
+                if (s.getErrorCode() == DUPLICATE_KEY || s.getErrorCode() == DUPLICATE_INDEX_KEY) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Returns the error number that makes e retryable, -1 for retryable errors without a number, 0 if not retryable
+    private static int retryableError(SQLException e, int... extraRetryableErrors) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof CommitOutcomeUnknownException) {
+                return 0;
+            }
+            if (!(t instanceof SQLException)) {
+                continue;
+            }
+            for (SQLException s = (SQLException) t; s != null; s = s.getNextException()) {
+                int code = s.getErrorCode();
+                if (RETRYABLE_ERRORS.contains(code)) {
+                    return code;
+                }
+                for (int extra : extraRetryableErrors) {
+                    if (code == extra) {
+                        return code;
+                    }
+                }
+                // 40001: serialization failure, 08xxx: connection exception
+                String state = s.getSQLState();
+                if (state != null && (state.equals("40001") || state.startsWith("08"))) {
+                    return code != 0 ? code : -1;
+                }
+            }
+        }
+        return 0;
+    }
+
+    public static void printStats() {
+        System.out.println("Retried operations: " + operations.sum() + " operations, " + retries.sum() + " retries, "
+                + recovered.sum() + " recovered, " + exhausted.sum() + " gave up");
+        Map<Integer, Long> byError = new TreeMap<>();
+        retriesByError.forEach((code, count) -> byError.put(code, count.sum()));
+        byError.forEach((code, count) -> System.out.printf("  error %-10d%d retries\n", code, count));
+    }
+}
@@ -0,0 +1,47 @@
+package scheduler.db;
+
+// One database holding a slice of the Availabilities and Appointments tables, with its own optional read replica.
+// Shard 0 is the home database that also holds Patients, Caregivers and Vaccines.
+public class Shard {
+    private final int index;
+    private final Endpoint primary;
+    private final Endpoint replica;
+
+    // last time this process wrote to the shard, used for read-your-writes
+    private volatile long lastWriteNanos;
+
+    Shard(int index, Endpoint primary, Endpoint replica) {
+        this.index = index;
+        this.primary = primary;
+        this.replica = replica;
+        this.lastWriteNanos = System.nanoTime() - Long.MAX_VALUE / 2;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public Endpoint getPrimary() {
+        return primary;
+    }
+
+    public Endpoint getReplica() {
+        return replica;
+    }
+
+    Endpoint select(ConnectionManager.Route route, long readYourWritesNanos) {
+        if (route == ConnectionManager.Route.PRIMARY) {
+            lastWriteNanos = System.nanoTime();
+            return primary;
+        }
+        if (replica == null || System.nanoTime() - lastWriteNanos < readYourWritesNanos) {
+            return primary;
+        }
+        return replica;
+    }
+
+    @Override
+    public String toString() {
+        return "shard " + index + " " + primary;
+    }
+}
@@ -0,0 +1,176 @@
+package scheduler.db;
+
+import scheduler.trace.Trace;
+import scheduler.util.Util;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Splits Availabilities and Appointments across several databases by date range.
+//
+// ShardCount=N enables sharding. Shard 0 is the home database configured for ConnectionManager, shard i (i >= 1) is
+// configured with the same variables prefixed by "Shard<i>" (Shard1ConnectionUrl or Shard1Server, Shard1DBName, ...)
+// and optionally "Shard<i>Replica". ShardBoundaries lists the N - 1 ascending first days of shards 1..N-1, e.g.
+// ShardBoundaries=2021-07-01,2021-10-01 for three shards.
+//
+// Appointment IDs encode their shard (id % N == shard index) so that cancel can go straight to the right shard.
+// Appointments booked before sharding was turned on all live on shard 0 whatever their ID, so ShardedIdsFrom
+// (default 0) is the first encoded ID: lower IDs are routed to shard 0, and new IDs are never lower.
+public class ShardRouter {
+
+    private static final Shard[] shards = shardsFromEnv();
+    private static final Date[] boundaries = boundariesFromEnv(shards.length);
+    private static final int shardedIdsFrom = (int) Util.getenvLong("ShardedIdsFrom", 0);
+
+    private static final ExecutorService scatterPool = Executors.newFixedThreadPool(shards.length, r -> {
+        Thread t = new Thread(r, "shard-scatter");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Runs against the connection of one shard
+    public interface ShardQuery<T> {
+        List<T> run(Connection con) throws SQLException;
+    }
+
+    public static int shardCount() {
+        return shards.length;
+    }
+
+    public static Shard shard(int index) {
+        return shards[index];
+    }
+
+    public static Shard shardForDate(Date date) {
+        int i = 0;
+        while (i < boundaries.length && !date.before(boundaries[i])) {
+            i++;
+        }
+        return shards[i];
+    }
+
+    public static Shard shardForAppointment(int appointmentId) {
+        if (appointmentId < shardedIdsFrom) {
+            return shards[0];
+        }
+        return shards[Math.floorMod(appointmentId, shards.length)];
+    }
+
+    public static ConnectionManager forDate(Date date, ConnectionManager.Route route) {
+        return new ConnectionManager(shardForDate(date), route);
+    }
+
+    public static ConnectionManager forAppointment(int appointmentId, ConnectionManager.Route route) {
+        return new ConnectionManager(shardForAppointment(appointmentId), route);
+    }
+
+    // The smallest ID above maxAppointmentId, and at least ShardedIdsFrom, that belongs to the given shard
+    public static int nextAppointmentId(Shard shard, int maxAppointmentId) {
+        int n = shards.length;
+        maxAppointmentId = Math.max(maxAppointmentId, shardedIdsFrom - 1);
+        int next = maxAppointmentId - Math.floorMod(maxAppointmentId, n) + shard.getIndex();
+        return next <= maxAppointmentId ? next + n : next;
+    }
+
+    // Runs the query on every shard in parallel and merges the per-shard results, each of which must already be
+    // sorted by the given order
+    public static <T> List<T> scatterGather(ConnectionManager.Route route, ShardQuery<T> query, Comparator<T> order) throws SQLException {
+        if (shards.length == 1) {
+            return runOn(shards[0], route, query);
+        }
+        List<Future<List<T>>> futures = new ArrayList<>(shards.length);
+        for (Shard shard : shards) {
+            futures.add(scatterPool.submit(Trace.propagate(() -> runOn(shard, route, query))));
+        }
+        List<List<T>> results = new ArrayList<>(shards.length);
+        for (Future<List<T>> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while querying shards", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof SQLException) {
+                    throw (SQLException) e.getCause();
+                }
+                throw new SQLException(e.getCause());
+            }
+        }
+        return merge(results, order);
+    }
+
+    private static <T> List<T> runOn(Shard shard, ConnectionManager.Route route, ShardQuery<T> query) throws SQLException {
+        ConnectionManager cm = new ConnectionManager(shard, route);
+        Connection con = cm.createConnection();
+        try {
+            return query.run(con);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // k-way merge of sorted lists
+    private static <T> List<T> merge(List<List<T>> sorted, Comparator<T> order) {
+        int total = 0;
+        PriorityQueue<int[]> heads = new PriorityQueue<>((a, b) -> order.compare(sorted.get(a[0]).get(a[1]), sorted.get(b[0]).get(b[1])));
+        for (int i = 0; i < sorted.size(); i++) {
+            total += sorted.get(i).size();
+            if (!sorted.get(i).isEmpty()) {
+                heads.add(new int[]{i, 0});
+            }
+        }
+        List<T> merged = new ArrayList<>(total);
+        while (!heads.isEmpty()) {
+            int[] head = heads.poll();
+            List<T> list = sorted.get(head[0]);
+            merged.add(list.get(head[1]));
+            if (++head[1] < list.size()) {
+                heads.add(head);
+            }
+        }
+        return merged;
+    }
+
+    private static Shard[] shardsFromEnv() {
+        int n = (int) Util.getenvLong("ShardCount", 1);
+        Shard home = ConnectionManager.getHomeShard();
+        Shard[] result = new Shard[Math.max(n, 1)];
+        result[0] = home;
+        for (int i = 1; i < result.length; i++) {
+            Endpoint primary = Endpoint.fromEnv("shard" + i, "Shard" + i, home.getPrimary());
+            if (primary == null) {
+                throw new IllegalStateException("ShardCount is " + n + " but Shard" + i + "ConnectionUrl/Shard" + i + "Server is not set");
+            }
+            result[i] = new Shard(i, primary, Endpoint.fromEnv("shard" + i + "-replica", "Shard" + i + "Replica", primary));
+        }
+        return result;
+    }
+
+    private static Date[] boundariesFromEnv(int shardCount) {
+        String value = System.getenv("ShardBoundaries");
+        if (shardCount == 1) {
+            return new Date[0];
+        }
+        String[] parts = value == null ? new String[0] : value.split(",");
+        if (parts.length != shardCount - 1) {
+            throw new IllegalStateException("ShardBoundaries needs " + (shardCount - 1) + " dates for " + shardCount + " shards");
+        }
+        Date[] result = new Date[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            result[i] = Date.valueOf(parts[i].trim());
+            if (i > 0 && !result[i].after(result[i - 1])) {
+                throw new IllegalStateException("ShardBoundaries must be in ascending order");
+            }
+        }
+        return result;
+    }
+}
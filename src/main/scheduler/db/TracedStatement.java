@@ -0,0 +1,59 @@
+package scheduler.db;
+
+import scheduler.trace.Trace;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Statement;
+
+// A statement handed out while a trace is active, recording a span for every execute call
+class TracedStatement implements InvocationHandler {
+    private static final int MAX_SQL_LENGTH = 80;
+
+    private final Statement raw;
+    // null for plain statements, whose SQL comes with each execute call
+    private final String sql;
+
+    private TracedStatement(Statement raw, String sql) {
+        this.raw = raw;
+        this.sql = sql;
+    }
+
+    static Statement wrap(Statement raw, Class<?> type, String sql) {
+        return (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[]{type},
+                new TracedStatement(raw, sql));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "TracedStatement[" + raw + "]";
+            default:
+                break;
+        }
+        Trace.Span span = Trace.Span.NONE;
+        if (method.getName().startsWith("execute")) {
+            String text = sql != null ? sql : (args != null && args.length > 0 ? String.valueOf(args[0]) : "batch");
+            span = Trace.span("sql " + abbreviate(text));
+        }
+        try {
+            return method.invoke(raw, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        } finally {
+            span.close();
+        }
+    }
+
+    private static String abbreviate(String text) {
+        String flat = text.replaceAll("\\s+", " ").trim();
+        return flat.length() <= MAX_SQL_LENGTH ? flat : flat.substring(0, MAX_SQL_LENGTH - 3) + "...";
+    }
+}
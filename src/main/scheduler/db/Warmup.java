@@ -0,0 +1,80 @@
+package scheduler.db;
+
+import scheduler.util.Util;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Fast-start support: does the expensive first-use work on a background thread while the prompt is already shown.
+// It loads the driver, fills the connection pools of the home database (PoolMinIdle connections, default 2), runs
+// the hot read queries once on each of those connections so the driver has them prepared, reads the NameIds
+// dictionaries and computes a throwaway PBKDF2 hash.
+public class Warmup {
+    private static final int minIdle = (int) Util.getenvLong("PoolMinIdle", 2);
+
+    // The first queries of a typical session: login, search_caregiver_schedule, reserve and show_appointments.
+    // The text must match the queries in the model classes and Scheduler for the prepared handles to be reused.
+    private static final String[] HOT_QUERIES = {
+            "SELECT Salt, Hash FROM Patients WHERE Username = ?",
+            "SELECT Salt, Hash FROM Caregivers WHERE Username = ?",
+            "SELECT Name, Doses, SecondDoseDays FROM Vaccines WHERE Name = ?",
+            "SELECT * FROM Vaccines",
+            "SELECT CaregiverID, Slots FROM Availabilities WHERE Time = ? AND Slots <> 0",
+            "SELECT MAX(AppointmentID) AS MaxAppointmentID FROM Appointments",
+    };
+
+    public static Thread startInBackground() {
+        Thread thread = new Thread(Warmup::run, "warmup");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+        return thread;
+    }
+
+    private static void run() {
+        Util.warmUpHash();
+        Shard home = ConnectionManager.getHomeShard();
+        try {
+            warm(home.getPrimary());
+            if (home.getReplica() != null) {
+                warm(home.getReplica());
+            }
+            NameIds.CAREGIVERS.load();
+            NameIds.PATIENTS.load();
+            NameIds.VACCINES.load();
+        } catch (SQLException e) {
+            // not fatal, the first command will open its own connection and report the problem
+            System.out.println("Warm-up could not connect to the database: " + e.getMessage());
+        }
+    }
+
+    private static void warm(Endpoint endpoint) throws SQLException {
+        endpoint.fill(minIdle);
+        // hold all of them at once so that each pooled connection gets warmed, not the same one over and over
+        List<Connection> connections = new ArrayList<>();
+        try {
+            for (int i = 0; i < minIdle; i++) {
+                connections.add(endpoint.open());
+            }
+            for (Connection con : connections) {
+                for (String query : HOT_QUERIES) {
+                    PreparedStatement statement = con.prepareStatement(query);
+                    if (query.contains("Time = ?")) {
+                        statement.setDate(1, Date.valueOf("1900-01-01"));
+                    } else if (query.contains("?")) {
+                        statement.setString(1, "");
+                    }
+                    statement.executeQuery().close();
+                }
+            }
+        } finally {
+            for (Connection con : connections) {
+                con.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package scheduler.model;
+
+import scheduler.db.NameIds;
+import scheduler.util.TimeSlots;
+
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalTime;
+import java.util.Comparator;
+
+// The vaccine, patient and caregiver are stored as their surrogate IDs, see NameIds. Their names are resolved when
+// the appointment is built, so the getters never touch the database.
+public class Appointment {
+    // show_appointments lists appointments by date and slot, then by ID
+    public static final Comparator<Appointment> BY_TIME = Comparator.comparing(Appointment::getTime)
+            .thenComparingInt(Appointment::getSlot)
+            .thenComparingInt(Appointment::getAppointmentId);
+
+    // The slot of appointments booked before time slots existed, which took the caregiver's whole day
+    public static final int WHOLE_DAY = -1;
+
+    private final int appointmentId;
+    private final Date time;
+    private final int slot;
+    private final int vaccineId;
+    private final String vaccineName;
+    private final int patientId;
+    private final String patientUsername;
+    private final int caregiverId;
+    private final String caregiverUsername;
+    private final String lotId;
+
+    private Appointment(AppointmentBuilder builder) {
+        this.appointmentId = builder.appointmentId;
+        this.time = builder.time;
+        this.slot = builder.slot;
+        this.vaccineId = builder.vaccineId;
+        this.vaccineName = builder.vaccineName;
+        this.patientId = builder.patientId;
+        this.patientUsername = builder.patientUsername;
+        this.caregiverId = builder.caregiverId;
+        this.caregiverUsername = builder.caregiverUsername;
+        this.lotId = builder.lotId;
+    }
+
+    // Getters
+    public int getAppointmentId() {
+        return appointmentId;
+    }
+
+    public Date getTime() {
+        return time;
+    }
+
+    // index of the time slot on the date, or WHOLE_DAY
+    public int getSlot() {
+        return slot;
+    }
+
+    // start of the time slot, null for WHOLE_DAY
+    public LocalTime getSlotStart() {
+        return slot == WHOLE_DAY ? null : TimeSlots.start(slot);
+    }
+
+    public int getVaccineId() {
+        return vaccineId;
+    }
+
+    public int getPatientId() {
+        return patientId;
+    }
+
+    public int getCaregiverId() {
+        return caregiverId;
+    }
+
+    // The names, for showing the appointment
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    public String getPatientUsername() {
+        return patientUsername;
+    }
+
+    public String getCaregiverUsername() {
+        return caregiverUsername;
+    }
+
+    // lot the dose was taken from, null if it was not taken from a lot
+    public String getLotId() {
+        return lotId;
+    }
+
+    public static class AppointmentBuilder {
+        private final int appointmentId;
+        private final Date time;
+        private final int slot;
+        private final int vaccineId;
+        private final String vaccineName;
+        private final int patientId;
+        private final String patientUsername;
+        private final int caregiverId;
+        private final String caregiverUsername;
+        private final String lotId;
+
+        public AppointmentBuilder(int appointmentId, Date time, int slot, int vaccineId, String vaccineName, int patientId,
+                                  String patientUsername, int caregiverId, String caregiverUsername, String lotId) {
+            this.appointmentId = appointmentId;
+            this.time = time;
+            this.slot = slot;
+            this.vaccineId = vaccineId;
+            this.vaccineName = vaccineName;
+            this.patientId = patientId;
+            this.patientUsername = patientUsername;
+            this.caregiverId = caregiverId;
+            this.caregiverUsername = caregiverUsername;
+            this.lotId = lotId;
+        }
+
+        // From a row with the columns of the Appointments table, the names are looked up in NameIds
+        public AppointmentBuilder(ResultSet resultSet) throws SQLException {
+            this.appointmentId = resultSet.getInt("AppointmentID");
+            this.time = resultSet.getDate("Time");
+            int slotIndex = resultSet.getInt("Slot");
+            this.slot = resultSet.wasNull() ? WHOLE_DAY : slotIndex;
+            this.vaccineId = resultSet.getInt("VaccineID");
+            this.patientId = resultSet.getInt("PatientID");
+            this.caregiverId = resultSet.getInt("CaregiverID");
+            this.lotId = resultSet.getString("LotID");
+            this.vaccineName = NameIds.VACCINES.name(vaccineId);
+            this.patientUsername = NameIds.PATIENTS.name(patientId);
+            this.caregiverUsername = NameIds.CAREGIVERS.name(caregiverId);
+        }
+
+        public Appointment build() {
+            return new Appointment(this);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package scheduler.model;
+
+import scheduler.db.NameIds;
+import scheduler.util.TimeSlots;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+// The free time slots of one caregiver on one date, see TimeSlots
+public class Availability {
+    private final Date time;
+    private final int caregiverId;
+    private final String username;
+    private final long slots;
+
+    private Availability(AvailabilityBuilder builder) {
+        this.time = builder.time;
+        this.caregiverId = builder.caregiverId;
+        this.username = builder.username;
+        this.slots = builder.slots;
+    }
+
+    private Availability(AvailabilityClaimer claimer) {
+        this.time = claimer.time;
+        this.caregiverId = claimer.caregiverId;
+        this.username = claimer.username;
+        this.slots = claimer.slots;
+    }
+
+    // Getters
+    public Date getTime() {
+        return time;
+    }
+
+    public int getCaregiverId() {
+        return caregiverId;
+    }
+
+    // the caregiver's name, from NameIds
+    public String getUsername() {
+        return username;
+    }
+
+    // bit i is set if slot i is free
+    public long getSlots() {
+        return slots;
+    }
+
+    public int getFreeSlotCount() {
+        return TimeSlots.freeCount(slots);
+    }
+
+    public int getFirstFreeSlot() {
+        return TimeSlots.firstFree(slots);
+    }
+
+    public static class AvailabilityBuilder {
+        private final Date time;
+        private final int caregiverId;
+        private final String username;
+        private final long slots;
+
+        public AvailabilityBuilder(Date time, int caregiverId, String username, long slots) {
+            this.time = time;
+            this.caregiverId = caregiverId;
+            this.username = username;
+            this.slots = slots;
+        }
+
+        public Availability build() {
+            return new Availability(this);
+        }
+    }
+
+    // Takes the earliest free slot of one caregiver on a date in a single statement, by clearing the lowest set bit
+    // of the slot bitmap (Slots & (Slots - 1)). Rows locked by other scheduler nodes that are booking the same date
+    // are skipped (READPAST) instead of waited on, so concurrent reservations spread over the free caregivers rather
+    // than queueing behind the same row.
+    public static class AvailabilityClaimer {
+        private final Date time;
+        private int caregiverId;
+        private String username;
+        private long slots;
+
+        public AvailabilityClaimer(Date time) {
+            this.time = time;
+        }
+
+        // Runs inside the caller's transaction, the claim is undone if the caller rolls back.
+        // Returns the availability as it was before the claim, its first free slot is the claimed one, or null if
+        // no caregiver has a free slot on that date.
+        public Availability claim(Connection con) throws SQLException {
+            String claimAvailability = "UPDATE TOP (1) Availabilities WITH (ROWLOCK, READPAST, UPDLOCK) " +
+                    "SET Slots = Slots & (Slots - 1) OUTPUT deleted.CaregiverID, deleted.Slots WHERE Time = ? AND Slots <> 0";
+            try (PreparedStatement statement = con.prepareStatement(claimAvailability)) {
+                statement.setDate(1, this.time);
+                ResultSet resultSet = statement.executeQuery();
+                if (!resultSet.next()) {
+                    return null;
+                }
+                this.caregiverId = resultSet.getInt("CaregiverID");
+                this.slots = resultSet.getLong("Slots");
+                this.username = NameIds.CAREGIVERS.name(caregiverId);
+                return new Availability(this);
+            }
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package scheduler.model;
 
 import scheduler.db.ConnectionManager;
+import scheduler.db.NameIds;
+import scheduler.db.ShardRouter;
+import scheduler.util.TimeSlots;
 import scheduler.util.Util;
 
 import java.sql.*;
@@ -49,25 +52,27 @@ public class Caregiver {
             statement.executeUpdate();
         } catch (SQLException e) {
             System.out.println("Error occurred when saving Caregiver information");
-            throw new SQLException();
+            throw e;
         } finally {
             cm.closeConnection();
         }
     }
 
     public void uploadAvailability(Date d) throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
+        ConnectionManager cm = ShardRouter.forDate(d, ConnectionManager.Route.PRIMARY);
         Connection con = cm.createConnection();
 
-        String addAvailability = "INSERT INTO Availabilities VALUES (? , ?)";
+        // every time slot of the day starts out free
+        String addAvailability = "INSERT INTO Availabilities (Time, CaregiverID, Slots) VALUES (?, ?, ?)";
         try {
             PreparedStatement statement = con.prepareStatement(addAvailability);
             statement.setDate(1, d);
-            statement.setString(2, this.username);
+            statement.setInt(2, NameIds.CAREGIVERS.requireId(this.username));
+            statement.setLong(3, TimeSlots.fullDay());
             statement.executeUpdate();
         } catch (SQLException e) {
             System.out.println("Error occurred when updating Caregiver's Availability");
-            throw new SQLException();
+            throw e;
         } finally {
             cm.closeConnection();
         }
@@ -129,7 +134,7 @@ public class Caregiver {
                 return null;
             } catch (SQLException e) {
                 System.out.println("Error occurred when logging in as caregiver " + this.username);
-                throw new SQLException();
+                throw e;
             } finally {
                 cm.closeConnection();
             }
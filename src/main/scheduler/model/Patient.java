@@ -49,7 +49,7 @@ public class Patient {
             statement.executeUpdate();
         } catch (SQLException e) {
             System.out.println("Error occurred when saving Patient information");
-            throw new SQLException();
+            throw e;
         } finally {
             cm.closeConnection();
         }
@@ -111,7 +111,7 @@ public class Patient {
                 return null;
             } catch (SQLException e) {
                 System.out.println("Error occurred when logging in as patient " + this.username);
-                throw new SQLException();
+                throw e;
             } finally {
                 cm.closeConnection();
             }
@@ -6,19 +6,23 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
 
 public class Vaccine {
     private final String vaccineName;
     private int availableDoses;
+    private final int secondDoseDays;
 
     private Vaccine(VaccineBuilder builder) {
         this.vaccineName = builder.vaccineName;
         this.availableDoses = builder.availableDoses;
+        this.secondDoseDays = builder.secondDoseDays;
     }
 
     private Vaccine(VaccineGetter getter) {
         this.vaccineName = getter.vaccineName;
         this.availableDoses = getter.availableDoses;
+        this.secondDoseDays = getter.secondDoseDays;
     }
 
     // Getters
@@ -30,66 +34,105 @@ public class Vaccine {
         return availableDoses;
     }
 
+    // days from the first to the second dose, 0 for a vaccine given in a single dose
+    public int getSecondDoseDays() {
+        return secondDoseDays;
+    }
+
     public void saveToDB() throws SQLException {
         ConnectionManager cm = new ConnectionManager();
         Connection con = cm.createConnection();
-
-        String addDoses = "INSERT INTO vaccines VALUES (?, ?)";
         try {
-            PreparedStatement statement = con.prepareStatement(addDoses);
-            statement.setString(1, this.vaccineName);
-            statement.setInt(2, this.availableDoses);
-            statement.executeUpdate();
+            saveToDB(con);
         } catch (SQLException e) {
-            throw new SQLException();
+            throw e;
         } finally {
             cm.closeConnection();
         }
     }
 
+    // Inserts the vaccine as part of the caller's transaction on the home database
+    public void saveToDB(Connection con) throws SQLException {
+        String addDoses = "INSERT INTO vaccines (Name, Doses, SecondDoseDays) VALUES (?, ?, ?)";
+        PreparedStatement statement = con.prepareStatement(addDoses);
+        statement.setString(1, this.vaccineName);
+        statement.setInt(2, this.availableDoses);
+        if (this.secondDoseDays == 0) {
+            statement.setNull(3, Types.INTEGER);
+        } else {
+            statement.setInt(3, this.secondDoseDays);
+        }
+        statement.executeUpdate();
+    }
+
     // Increment the available doses
     public void increaseAvailableDoses(int num) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            increaseAvailableDoses(con, num);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Increment the available doses as part of the caller's transaction on the home database
+    public void increaseAvailableDoses(Connection con, int num) throws SQLException {
         if (num <= 0) {
             throw new IllegalArgumentException("Argument cannot be negative!");
         }
+
+        // relative update, our own copy of the doses may come from a lagging read replica
+        String addAvailability  = "UPDATE vaccines SET Doses = Doses + ? WHERE name = ?;";
+        PreparedStatement statement = con.prepareStatement(addAvailability);
+        statement.setInt(1, num);
+        statement.setString(2, this.vaccineName);
+        statement.executeUpdate();
         this.availableDoses += num;
+    }
 
+    // Decrement the available doses
+    public void decreaseAvailableDoses(int num) throws SQLException {
         ConnectionManager cm = new ConnectionManager();
         Connection con = cm.createConnection();
-
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?;";
         try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
-            statement.setString(2, this.vaccineName);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
+            decreaseAvailableDoses(con, num);
         } finally {
             cm.closeConnection();
         }
     }
 
-    // Decrement the available doses
-    public void decreaseAvailableDoses(int num) throws SQLException {
-        if (this.availableDoses - num < 0) {
+    // Decrement the available doses as part of the caller's transaction on the home database
+    public void decreaseAvailableDoses(Connection con, int num) throws SQLException {
+        // relative and guarded update, so a stale read cannot overwrite doses taken by someone else. The database
+        // decides whether there are enough doses, our own count may be stale.
+        String removeAvailability  = "UPDATE vaccines SET Doses = Doses - ? WHERE name = ? AND Doses >= ?;";
+        PreparedStatement statement = con.prepareStatement(removeAvailability);
+        statement.setInt(1, num);
+        statement.setString(2, this.vaccineName);
+        statement.setInt(3, num);
+        int updated = statement.executeUpdate();
+        if (updated == 0) {
             throw new IllegalArgumentException("Not enough available doses!");
         }
-        this.availableDoses -= num;
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        this.availableDoses = Math.max(this.availableDoses - num, 0);
+    }
 
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?;";
-        try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
-            statement.setString(2, this.vaccineName);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+    // Decrement the available doses by one dose that is not part of any lot, as part of the caller's transaction on
+    // the home database
+    public void decreaseDoseWithoutLot(Connection con) throws SQLException {
+        // the doses without a lot are those not counted in any lot; the doses of an expired lot stay held back, they
+        // can no longer be given at all
+        String removeAvailability = "UPDATE vaccines SET Doses = Doses - 1 WHERE name = ? AND " +
+                "Doses > (SELECT COALESCE(SUM(Quantity), 0) FROM VaccineLots WHERE VaccineName = ?);";
+        PreparedStatement statement = con.prepareStatement(removeAvailability);
+        statement.setString(1, this.vaccineName);
+        statement.setString(2, this.vaccineName);
+        int updated = statement.executeUpdate();
+        if (updated == 0) {
+            throw new IllegalArgumentException("Not enough available doses!");
         }
+        this.availableDoses = Math.max(this.availableDoses - 1, 0);
     }
 
     @Override
@@ -97,16 +140,23 @@ public class Vaccine {
         return "Vaccine{" +
                 "vaccineName='" + vaccineName + '\'' +
                 ", availableDoses=" + availableDoses +
+                ", secondDoseDays=" + secondDoseDays +
                 '}';
     }
 
     public static class VaccineBuilder {
         private final String vaccineName;
         private int availableDoses;
+        private final int secondDoseDays;
 
         public VaccineBuilder(String vaccineName, int availableDoses) {
+            this(vaccineName, availableDoses, 0);
+        }
+
+        public VaccineBuilder(String vaccineName, int availableDoses, int secondDoseDays) {
             this.vaccineName = vaccineName;
             this.availableDoses = availableDoses;
+            this.secondDoseDays = secondDoseDays;
         }
 
         public Vaccine build() throws SQLException {
@@ -117,27 +167,30 @@ public class Vaccine {
     public static class VaccineGetter {
         private final String vaccineName;
         private int availableDoses;
+        private int secondDoseDays;
 
         public VaccineGetter(String vaccineName) {
             this.vaccineName = vaccineName;
         }
 
         public Vaccine get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
+            ConnectionManager cm = new ConnectionManager(ConnectionManager.Route.READ);
             Connection con = cm.createConnection();
 
-            String getVaccine = "SELECT Name, Doses FROM Vaccines WHERE Name = ?";
+            String getVaccine = "SELECT Name, Doses, SecondDoseDays FROM Vaccines WHERE Name = ?";
             try {
                 PreparedStatement statement = con.prepareStatement(getVaccine);
                 statement.setString(1, this.vaccineName);
                 ResultSet resultSet = statement.executeQuery();
                 while (resultSet.next()) {
                     this.availableDoses = resultSet.getInt("Doses");
+                    // NULL for a single dose
+                    this.secondDoseDays = resultSet.getInt("SecondDoseDays");
                     return new Vaccine(this);
                 }
                 return null;
             } catch (SQLException e) {
-                throw new SQLException();
+                throw e;
             } finally {
                 cm.closeConnection();
             }
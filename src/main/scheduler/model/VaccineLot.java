@@ -0,0 +1,143 @@
+package scheduler.model;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Doses of one vaccine delivered together, which expire on the same date. The lots live on the home database next
+// to Vaccines; Vaccines.Doses stays the total of all doses, with or without a lot.
+public class VaccineLot {
+    public static final int MAX_LOT_ID_LENGTH = 64;
+
+    private final String lotId;
+    private final String vaccineName;
+    private final int quantity;
+    private final Date expiry;
+
+    private VaccineLot(VaccineLotBuilder builder) {
+        this.lotId = builder.lotId;
+        this.vaccineName = builder.vaccineName;
+        this.quantity = builder.quantity;
+        this.expiry = builder.expiry;
+    }
+
+    // Getters
+    public String getLotId() {
+        return lotId;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    // last date the doses can be given
+    public Date getExpiry() {
+        return expiry;
+    }
+
+    // Adds the doses to the lot as part of the caller's transaction on the home database, creating the lot if it is new
+    public void addDoses(Connection con) throws SQLException {
+        String addDoses = "UPDATE VaccineLots WITH (UPDLOCK, SERIALIZABLE) SET Quantity = Quantity + ? WHERE LotID = ?; " +
+                "IF @@ROWCOUNT = 0 INSERT INTO VaccineLots (LotID, VaccineName, Quantity, Expiry) VALUES (?, ?, ?, ?);";
+        PreparedStatement statement = con.prepareStatement(addDoses);
+        statement.setInt(1, this.quantity);
+        statement.setString(2, this.lotId);
+        statement.setString(3, this.lotId);
+        statement.setString(4, this.vaccineName);
+        statement.setInt(5, this.quantity);
+        statement.setDate(6, this.expiry);
+        statement.executeUpdate();
+    }
+
+    // Takes one dose from the lot if it has any left and is still valid on the date. Returns false otherwise.
+    public static boolean takeDose(Connection con, String lotId, Date date) throws SQLException {
+        String takeDose = "UPDATE VaccineLots SET Quantity = Quantity - 1 WHERE LotID = ? AND Quantity > 0 AND Expiry >= ?";
+        PreparedStatement statement = con.prepareStatement(takeDose);
+        statement.setString(1, lotId);
+        statement.setDate(2, date);
+        return statement.executeUpdate() == 1;
+    }
+
+    // Puts one dose back into the lot. Returns the lot, or null if it does not exist.
+    public static VaccineLot returnDose(Connection con, String lotId) throws SQLException {
+        String returnDose = "UPDATE VaccineLots SET Quantity = Quantity + 1 " +
+                "OUTPUT inserted.LotID, inserted.VaccineName, inserted.Quantity, inserted.Expiry WHERE LotID = ?";
+        PreparedStatement statement = con.prepareStatement(returnDose);
+        statement.setString(1, lotId);
+        ResultSet resultSet = statement.executeQuery();
+        return resultSet.next() ? new VaccineLotBuilder(resultSet).build() : null;
+    }
+
+    // The lots of a vaccine that have doses left, read on the given connection to the home database
+    public static List<VaccineLot> forVaccine(Connection con, String vaccineName) throws SQLException {
+        PreparedStatement statement = con.prepareStatement("SELECT LotID, VaccineName, Quantity, Expiry FROM VaccineLots " +
+                "WHERE VaccineName = ? AND Quantity > 0");
+        statement.setString(1, vaccineName);
+        ResultSet resultSet = statement.executeQuery();
+        List<VaccineLot> lots = new ArrayList<>();
+        while (resultSet.next()) {
+            lots.add(new VaccineLotBuilder(resultSet).build());
+        }
+        return lots;
+    }
+
+    @Override
+    public String toString() {
+        return "VaccineLot{" +
+                "lotId='" + lotId + '\'' +
+                ", vaccineName='" + vaccineName + '\'' +
+                ", quantity=" + quantity +
+                ", expiry=" + expiry +
+                '}';
+    }
+
+    public static class VaccineLotBuilder {
+        private final String lotId;
+        private final String vaccineName;
+        private final int quantity;
+        private final Date expiry;
+
+        public VaccineLotBuilder(String lotId, String vaccineName, int quantity, Date expiry) {
+            this.lotId = lotId;
+            this.vaccineName = vaccineName;
+            this.quantity = quantity;
+            this.expiry = expiry;
+        }
+
+        // From a row with the columns of the VaccineLots table
+        public VaccineLotBuilder(ResultSet resultSet) throws SQLException {
+            this.lotId = resultSet.getString("LotID");
+            this.vaccineName = resultSet.getString("VaccineName");
+            this.quantity = resultSet.getInt("Quantity");
+            this.expiry = resultSet.getDate("Expiry");
+        }
+
+        public VaccineLot build() {
+            return new VaccineLot(this);
+        }
+    }
+
+    public static class VaccineLotGetter {
+        private final String lotId;
+
+        public VaccineLotGetter(String lotId) {
+            this.lotId = lotId;
+        }
+
+        // The lot, read on the given connection to the home database, or null if it does not exist
+        public VaccineLot get(Connection con) throws SQLException {
+            PreparedStatement statement = con.prepareStatement("SELECT LotID, VaccineName, Quantity, Expiry FROM VaccineLots WHERE LotID = ?");
+            statement.setString(1, this.lotId);
+            ResultSet resultSet = statement.executeQuery();
+            return resultSet.next() ? new VaccineLotBuilder(resultSet).build() : null;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package scheduler.model;
+
+import scheduler.db.ConnectionManager;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Counters of one vaccine on one day, kept in the VaccineUsage table of the home database. Booked and Cancelled
+// count the appointments made and cancelled for that day, Added the doses added on that day. They are updated in
+// the same transaction as Vaccines.Doses, so reading them never needs the Appointments rows.
+public class VaccineUsage {
+    private final Date day;
+    private final String vaccineName;
+    private final int booked;
+    private final int cancelled;
+    private final int added;
+
+    private VaccineUsage(Date day, String vaccineName, int booked, int cancelled, int added) {
+        this.day = day;
+        this.vaccineName = vaccineName;
+        this.booked = booked;
+        this.cancelled = cancelled;
+        this.added = added;
+    }
+
+    // Getters
+    public Date getDay() {
+        return day;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    public int getBooked() {
+        return booked;
+    }
+
+    public int getCancelled() {
+        return cancelled;
+    }
+
+    public int getAdded() {
+        return added;
+    }
+
+    // Adds to the counters of the day as part of the caller's transaction on the home database, creating the row
+    // if it is the first change of that vaccine on that day. The lock hints keep two first changes from both
+    // inserting.
+    public static void record(Connection con, Date day, String vaccineName, int booked, int cancelled, int added) throws SQLException {
+        String upsertUsage = "UPDATE VaccineUsage WITH (UPDLOCK, SERIALIZABLE) " +
+                "SET Booked = Booked + ?, Cancelled = Cancelled + ?, Added = Added + ? WHERE Day = ? AND VaccineName = ?; " +
+                "IF @@ROWCOUNT = 0 INSERT INTO VaccineUsage VALUES (?, ?, ?, ?, ?);";
+        PreparedStatement statement = con.prepareStatement(upsertUsage);
+        statement.setInt(1, booked);
+        statement.setInt(2, cancelled);
+        statement.setInt(3, added);
+        statement.setDate(4, day);
+        statement.setString(5, vaccineName);
+        statement.setDate(6, day);
+        statement.setString(7, vaccineName);
+        statement.setInt(8, booked);
+        statement.setInt(9, cancelled);
+        statement.setInt(10, added);
+        statement.executeUpdate();
+    }
+
+    public static class VaccineUsageGetter {
+        private final Date start;
+        private final Date end;
+
+        // both days included
+        public VaccineUsageGetter(Date start, Date end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public List<VaccineUsage> get() throws SQLException {
+            ConnectionManager cm = new ConnectionManager(ConnectionManager.Route.READ);
+            Connection con = cm.createConnection();
+
+            String getUsage = "SELECT Day, VaccineName, Booked, Cancelled, Added FROM VaccineUsage " +
+                    "WHERE Day BETWEEN ? AND ? ORDER BY Day, VaccineName";
+            try {
+                PreparedStatement statement = con.prepareStatement(getUsage);
+                statement.setDate(1, start);
+                statement.setDate(2, end);
+                ResultSet resultSet = statement.executeQuery();
+                List<VaccineUsage> usage = new ArrayList<>();
+                while (resultSet.next()) {
+                    usage.add(new VaccineUsage(resultSet.getDate("Day"), resultSet.getString("VaccineName"),
+                            resultSet.getInt("Booked"), resultSet.getInt("Cancelled"), resultSet.getInt("Added")));
+                }
+                return usage;
+            } finally {
+                cm.closeConnection();
+            }
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package scheduler.report;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.NameIds;
+import scheduler.db.ShardRouter;
+import scheduler.util.TimeSlots;
+import scheduler.util.Util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalTime;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Writes the manifest of one clinic day: for every caregiver with appointments on the date, <caregiver>.csv and
+// <caregiver>.json in the output directory. A username with characters other than letters, digits, '.', '_' and
+// '-' gets them replaced by '_' and its CaregiverID appended after a '~', so two caregivers never share a file.
+//
+// The appointments are read through one cursor ordered by caregiver, so each caregiver's rows arrive together and
+// a group is complete as soon as the next caregiver shows up. Rows are encoded straight into fixed-size buffers
+// taken from a preallocated pool; full buffers are written by a pool of writer threads at positions reserved when
+// the buffer was handed over, so several files (and several chunks of one file) are written in parallel. The
+// reader waits for a free buffer when all of them are in flight, which keeps memory constant however many
+// appointments there are.
+//
+// ReportFetchSize (default 10000) sets the JDBC fetch size, ReportWriterThreads (default: cores) the writers.
+public class DailyReport {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int fetchSize = (int) Util.getenvLong("ReportFetchSize", 10000);
+    private static final int writerThreads = (int) Util.getenvLong("ReportWriterThreads", Runtime.getRuntime().availableProcessors());
+
+    private final Date date;
+    private final Path outDir;
+
+    private final BlockingQueue<ByteBuffer> freeBuffers;
+    private final ExecutorService writers;
+    // one party per buffer being written, run() waits for all of them at the end
+    private final Phaser inFlight = new Phaser(1);
+    private final AtomicReference<IOException> writeError = new AtomicReference<>();
+
+    private int caregivers = 0;
+    private long appointments = 0;
+    private long elapsedMillis = 0;
+
+    public DailyReport(Date date, Path outDir) {
+        this.date = date;
+        this.outDir = outDir;
+        int buffers = 4 * writerThreads;
+        this.freeBuffers = new ArrayBlockingQueue<>(buffers);
+        for (int i = 0; i < buffers; i++) {
+            freeBuffers.add(ByteBuffer.allocateDirect(BUFFER_SIZE));
+        }
+        this.writers = Executors.newFixedThreadPool(writerThreads, r -> {
+            Thread t = new Thread(r, "report-writer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Getters
+    public int getCaregivers() {
+        return caregivers;
+    }
+
+    public long getAppointments() {
+        return appointments;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public Path getOutDir() {
+        return outDir;
+    }
+
+    public DailyReport run() throws IOException, SQLException {
+        long start = System.nanoTime();
+        Files.createDirectories(outDir);
+        // the whole day lives on one shard
+        ConnectionManager cm = ShardRouter.forDate(date, ConnectionManager.Route.READ);
+        Connection con = cm.createConnection();
+        String queryDay = "SELECT AppointmentID, Slot, VaccineID, PatientID, CaregiverID FROM Appointments " +
+                "WHERE Time = ? AND Cancelled = 0 ORDER BY CaregiverID, Slot, AppointmentID";
+        CaregiverFiles current = null;
+        try {
+            PreparedStatement statement = con.prepareStatement(queryDay, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(fetchSize);
+            statement.setDate(1, date);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                // the names come from NameIds, in memory after the first row
+                int caregiverId = resultSet.getInt("CaregiverID");
+                if (current == null || current.caregiverId != caregiverId) {
+                    if (current != null) {
+                        current.finish();
+                        current = null;
+                    }
+                    current = new CaregiverFiles(caregiverId, NameIds.CAREGIVERS.name(caregiverId));
+                    caregivers++;
+                }
+                int slot = resultSet.getInt("Slot");
+                LocalTime slotStart = resultSet.wasNull() ? null : TimeSlots.start(slot);
+                current.add(resultSet.getInt("AppointmentID"), slotStart, NameIds.VACCINES.name(resultSet.getInt("VaccineID")),
+                        NameIds.PATIENTS.name(resultSet.getInt("PatientID")));
+                appointments++;
+            }
+            if (current != null) {
+                current.finish();
+                current = null;
+            }
+        } finally {
+            cm.closeConnection();
+            if (current != null) {
+                current.abandon();
+            }
+            inFlight.arriveAndAwaitAdvance();
+            writers.shutdown();
+        }
+        if (writeError.get() != null) {
+            throw writeError.get();
+        }
+        elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        return this;
+    }
+
+    private ByteBuffer takeBuffer() throws IOException {
+        try {
+            ByteBuffer buffer = freeBuffers.take();
+            buffer.clear();
+            return buffer;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing report", e);
+        }
+    }
+
+    // One output file being filled by the reader thread
+    private class ReportFile {
+        private final FileChannel channel;
+        private ByteBuffer buffer;
+        // where the current buffer goes in the file
+        private long position = 0;
+        // buffers handed to writers and not yet written, plus one while the reader is still adding to the file
+        private int pending = 1;
+
+        private ReportFile(Path path) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            try {
+                this.buffer = takeBuffer();
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        private void write(String text) throws IOException {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > buffer.remaining()) {
+                flush();
+                buffer = takeBuffer();
+            }
+            buffer.put(bytes);
+        }
+
+        // Hands the current buffer to a writer thread
+        private void flush() {
+            ByteBuffer full = buffer;
+            full.flip();
+            long at = position;
+            position += full.remaining();
+            synchronized (this) {
+                pending++;
+            }
+            inFlight.register();
+            writers.execute(() -> {
+                try {
+                    long offset = at;
+                    while (full.hasRemaining()) {
+                        offset += channel.write(full, offset);
+                    }
+                } catch (IOException e) {
+                    writeError.compareAndSet(null, e);
+                } finally {
+                    freeBuffers.add(full);
+                    done();
+                    inFlight.arriveAndDeregister();
+                }
+            });
+            buffer = null;
+        }
+
+        private void finish() {
+            flush();
+            done();
+        }
+
+        private void done() {
+            boolean close;
+            synchronized (this) {
+                close = --pending == 0;
+            }
+            if (close) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    writeError.compareAndSet(null, e);
+                }
+            }
+        }
+
+        private void abandon() {
+            if (buffer != null) {
+                freeBuffers.add(buffer);
+                buffer = null;
+            }
+            done();
+        }
+    }
+
+    // The CSV and JSON manifest of one caregiver
+    private class CaregiverFiles {
+        private final int caregiverId;
+        private final ReportFile csv;
+        private final ReportFile json;
+        private boolean first = true;
+
+        private CaregiverFiles(int caregiverId, String caregiver) throws IOException {
+            this.caregiverId = caregiverId;
+            String fileName = safeFileName(caregiverId, caregiver);
+            this.csv = new ReportFile(outDir.resolve(fileName + ".csv"));
+            try {
+                this.json = new ReportFile(outDir.resolve(fileName + ".json"));
+            } catch (IOException e) {
+                csv.abandon();
+                throw e;
+            }
+            csv.write("AppointmentID,Time,Slot,VaccineName,PatientUsername\n");
+            json.write("{\"caregiver\": " + jsonString(caregiver) + ", \"date\": \"" + date + "\", \"appointments\": [");
+        }
+
+        // slotStart is null for appointments that take the whole day
+        private void add(int appointmentId, LocalTime slotStart, String vaccineName, String patientUsername) throws IOException {
+            csv.write(appointmentId + "," + date + "," + (slotStart == null ? "" : slotStart) + "," + csvField(vaccineName) + ","
+                    + csvField(patientUsername) + "\n");
+            json.write((first ? "\n  " : ",\n  ") + "{\"appointmentId\": " + appointmentId
+                    + ", \"slot\": " + (slotStart == null ? "null" : "\"" + slotStart + "\"") + ", \"vaccine\": " + jsonString(vaccineName)
+                    + ", \"patient\": " + jsonString(patientUsername) + "}");
+            first = false;
+        }
+
+        private void finish() throws IOException {
+            json.write("\n]}\n");
+            csv.finish();
+            json.finish();
+        }
+
+        private void abandon() {
+            csv.abandon();
+            json.abandon();
+        }
+    }
+
+    // '~' never survives the replacement, so a name with the ID appended cannot equal another caregiver's name
+    private static String safeFileName(int caregiverId, String username) {
+        String safe = username.replaceAll("[^A-Za-z0-9._-]", "_");
+        return safe.equals(username) ? safe : safe + "~" + caregiverId;
+    }
+
+    private static String csvField(String value) {
+        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    private static String jsonString(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
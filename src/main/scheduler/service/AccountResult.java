@@ -0,0 +1,26 @@
+package scheduler.service;
+
+public class AccountResult {
+    public enum Status {
+        CREATED,
+        USERNAME_TAKEN,
+        WEAK_PASSWORD
+    }
+
+    private final Status status;
+    private final String username;
+
+    AccountResult(Status status, String username) {
+        this.status = status;
+        this.username = username;
+    }
+
+    // Getters
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+}
@@ -0,0 +1,113 @@
+package scheduler.service;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.ShardRouter;
+import scheduler.util.Util;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+// The days on which some caregiver has a free slot, kept in memory so that reserve_series finds the days of its
+// follow-up window without reaching the shards.
+//
+// Like LotIndex, the index only says which days to try; claiming a slot decides. A day is loaded with the window
+// around it from every shard at once, and loaded again once it is older than AvailabilityRefreshMillis (default
+// 5000), so that slots uploaded or booked by other processes are picked up. Uploads and cancellations in this
+// process mark their day free at once, and a day whose claim found no caregiver is marked full.
+class AvailabilityIndex {
+    private final long refreshMillis = Util.getenvLong("AvailabilityRefreshMillis", 5000);
+
+    // What is known of one day
+    private static class Day {
+        private boolean free;
+        private long loadedMillis;
+
+        private Day(boolean free, long loadedMillis) {
+            this.free = free;
+            this.loadedMillis = loadedMillis;
+        }
+    }
+
+    // by date
+    private final TreeMap<Date, Day> days = new TreeMap<>();
+
+    // The days from first to last, both included, with a free slot, in date order
+    List<Date> freeDays(Date first, Date last) throws SQLException {
+        if (isStale(first, last)) {
+            // read outside the monitor, other lookups go on meanwhile
+            Set<Date> found = new HashSet<>(load(first, last));
+            long now = System.currentTimeMillis();
+            synchronized (this) {
+                for (LocalDate day = first.toLocalDate(); !day.isAfter(last.toLocalDate()); day = day.plusDays(1)) {
+                    Date date = Date.valueOf(day);
+                    days.put(date, new Day(found.contains(date), now));
+                }
+            }
+        }
+        List<Date> free = new ArrayList<>();
+        synchronized (this) {
+            for (Map.Entry<Date, Day> day : days.subMap(first, true, last, true).entrySet()) {
+                if (day.getValue().free) {
+                    free.add(day.getKey());
+                }
+            }
+        }
+        return free;
+    }
+
+    // A slot was uploaded or given back on the date
+    synchronized void markFree(Date date) {
+        Day day = days.get(date);
+        if (day != null) {
+            day.free = true;
+        }
+    }
+
+    // No caregiver could be claimed on the date
+    synchronized void markFull(Date date) {
+        Day day = days.get(date);
+        if (day != null) {
+            day.free = false;
+        }
+    }
+
+    private synchronized boolean isStale(Date first, Date last) {
+        Map<Date, Day> known = days.subMap(first, true, last, true);
+        long length = last.toLocalDate().toEpochDay() - first.toLocalDate().toEpochDay() + 1;
+        if (known.size() < length) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        for (Day day : known.values()) {
+            if (now - day.loadedMillis >= refreshMillis) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<Date> load(Date first, Date last) throws SQLException {
+        String findDays = "SELECT DISTINCT Time FROM Availabilities WHERE Time BETWEEN ? AND ? AND Slots <> 0 ORDER BY Time";
+        return ShardRouter.scatterGather(ConnectionManager.Route.READ, con -> {
+            PreparedStatement statement = con.prepareStatement(findDays);
+            statement.setDate(1, first);
+            statement.setDate(2, last);
+            ResultSet resultSet = statement.executeQuery();
+            List<Date> found = new ArrayList<>();
+            while (resultSet.next()) {
+                found.add(resultSet.getDate("Time"));
+            }
+            return found;
+        }, Comparator.<Date>naturalOrder());
+    }
+}
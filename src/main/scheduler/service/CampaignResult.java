@@ -0,0 +1,73 @@
+package scheduler.service;
+
+import scheduler.batch.CampaignPlanner;
+
+import java.nio.file.Path;
+
+public class CampaignResult {
+    public enum Status {
+        PLANNED,
+        // the campaign stopped part way, the counts are what was done before
+        FAILED
+    }
+
+    private final Status status;
+    private final long patientsRead;
+    private final long assigned;
+    private final long rejected;
+    private final int days;
+    private final long planMillis;
+    private final long writeMillis;
+    private final Path rejectFile;
+    private final Exception error;
+
+    CampaignResult(CampaignPlanner planner, Exception error) {
+        this.status = error == null ? Status.PLANNED : Status.FAILED;
+        this.patientsRead = planner.getPatientsRead();
+        this.assigned = planner.getAssigned();
+        this.rejected = planner.getRejected();
+        this.days = planner.getDays();
+        this.planMillis = planner.getPlanMillis();
+        this.writeMillis = planner.getWriteMillis();
+        this.rejectFile = planner.getRejectFile();
+        this.error = error;
+    }
+
+    // Getters
+    public Status getStatus() {
+        return status;
+    }
+
+    public long getPatientsRead() {
+        return patientsRead;
+    }
+
+    public long getAssigned() {
+        return assigned;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public int getDays() {
+        return days;
+    }
+
+    public long getPlanMillis() {
+        return planMillis;
+    }
+
+    public long getWriteMillis() {
+        return writeMillis;
+    }
+
+    public Path getRejectFile() {
+        return rejectFile;
+    }
+
+    // what the campaign failed with, only when FAILED
+    public Exception getError() {
+        return error;
+    }
+}
@@ -0,0 +1,30 @@
+package scheduler.service;
+
+import scheduler.model.Appointment;
+
+public class CancelResult {
+    public enum Status {
+        CANCELLED,
+        // cancelled, but the dose could not be given back to the inventory on the home database
+        CANCELLED_DOSE_NOT_RETURNED,
+        NOT_FOUND
+    }
+
+    private final Status status;
+    private final Appointment appointment;
+
+    CancelResult(Status status, Appointment appointment) {
+        this.status = status;
+        this.appointment = appointment;
+    }
+
+    // Getters
+    public Status getStatus() {
+        return status;
+    }
+
+    // the cancelled appointment, null if NOT_FOUND
+    public Appointment getAppointment() {
+        return appointment;
+    }
+}
@@ -0,0 +1,173 @@
+package scheduler.service;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.ShardRouter;
+import scheduler.model.Appointment;
+import scheduler.util.Util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Remembers the outcome of reserve and cancel requests that carried a client request key, so that a repeated
+// request returns the original appointment instead of booking or cancelling again.
+//
+// Keys are written to the IdempotencyKeys table of the home database, whatever shard ran the request, so a key
+// reused for a request on another shard is still found. The key is written in the request's transaction when that
+// runs on the home database, and otherwise in a transaction of its own committed right after the request's. Keys
+// are kept for IdempotencyTtlMillis (default one day). The most recent IdempotencyCacheSize (default 10000) keys
+// are also held in memory, so a retry from the same process does not reach the database at all.
+class IdempotencyStore {
+    static final int MAX_KEY_LENGTH = 64;
+
+    private static final long PURGE_INTERVAL_MILLIS = 60000;
+    private static final int PURGE_BATCH_SIZE = 1000;
+
+    private final long ttlMillis = Util.getenvLong("IdempotencyTtlMillis", 24 * 60 * 60 * 1000L);
+    private final int capacity = (int) Util.getenvLong("IdempotencyCacheSize", 10000);
+
+    // access order, the least recently used key is dropped first
+    private final LinkedHashMap<String, Entry> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > capacity;
+        }
+    };
+
+    // last purge of expired keys
+    private volatile long lastPurge = 0;
+
+    // What a key was used for
+    static class Entry {
+        private final String operation;
+        private final String username;
+        private final Appointment appointment;
+        private final long createdMillis;
+
+        Entry(String operation, String username, Appointment appointment, long createdMillis) {
+            this.operation = operation;
+            this.username = username;
+            this.appointment = appointment;
+            this.createdMillis = createdMillis;
+        }
+
+        // the appointment booked or cancelled by the original request
+        Appointment getAppointment() {
+            return appointment;
+        }
+
+        boolean matches(String operation, String username) {
+            return this.operation.equals(operation) && this.username.equals(username);
+        }
+    }
+
+    synchronized Entry cached(String key) {
+        Entry entry = cache.get(key);
+        if (entry != null && isExpired(entry.createdMillis)) {
+            cache.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    synchronized void remember(String key, Entry entry) {
+        cache.put(key, entry);
+    }
+
+    // Looks the key up in memory, then on the primary of the home database: a replica may not have the key yet
+    Entry find(String key) throws SQLException {
+        Entry entry = cached(key);
+        if (entry != null) {
+            return entry;
+        }
+        int appointmentId;
+        ConnectionManager cm = new ConnectionManager();
+        try {
+            Connection con = cm.createConnection();
+            PreparedStatement statement = con.prepareStatement("SELECT Operation, Username, AppointmentID, Created " +
+                    "FROM IdempotencyKeys WHERE RequestKey = ? AND Created >= ?");
+            statement.setString(1, key);
+            statement.setTimestamp(2, new Timestamp(System.currentTimeMillis() - ttlMillis));
+            ResultSet resultSet = statement.executeQuery();
+            if (!resultSet.next()) {
+                return null;
+            }
+            appointmentId = resultSet.getInt("AppointmentID");
+            boolean noAppointment = resultSet.wasNull();
+            entry = new Entry(resultSet.getString("Operation"), resultSet.getString("Username"),
+                    noAppointment ? null : findAppointment(appointmentId), resultSet.getTimestamp("Created").getTime());
+        } finally {
+            cm.closeConnection();
+        }
+        remember(key, entry);
+        return entry;
+    }
+
+    // The appointment, from the primary of the shard holding it; it may have been archived since
+    private static Appointment findAppointment(int appointmentId) throws SQLException {
+        String findAppointment = "SELECT AppointmentID, Time, Slot, VaccineID, PatientID, CaregiverID, LotID FROM Appointments " +
+                "WHERE AppointmentID = ? UNION ALL " +
+                "SELECT AppointmentID, Time, Slot, VaccineID, PatientID, CaregiverID, LotID FROM AppointmentsArchive " +
+                "WHERE AppointmentID = ?";
+        ConnectionManager cm = ShardRouter.forAppointment(appointmentId, ConnectionManager.Route.PRIMARY);
+        try {
+            Connection con = cm.createConnection();
+            PreparedStatement statement = con.prepareStatement(findAppointment);
+            statement.setInt(1, appointmentId);
+            statement.setInt(2, appointmentId);
+            ResultSet resultSet = statement.executeQuery();
+            return resultSet.next() ? new Appointment.AppointmentBuilder(resultSet).build() : null;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Writes the key as part of the caller's transaction on the home database. An expired row with the same key
+    // that has not been purged yet is replaced. A concurrent request with the same key fails on the primary key and,
+    // when retried, finds this one.
+    Entry record(Connection con, String key, String operation, String username, Appointment appointment) throws SQLException {
+        long now = System.currentTimeMillis();
+        PreparedStatement deleteExpired = con.prepareStatement("DELETE FROM IdempotencyKeys WHERE RequestKey = ? AND Created < ?");
+        deleteExpired.setString(1, key);
+        deleteExpired.setTimestamp(2, new Timestamp(now - ttlMillis));
+        deleteExpired.executeUpdate();
+        String addKey = "INSERT INTO IdempotencyKeys (RequestKey, Operation, Username, AppointmentID, Created) VALUES (?, ?, ?, ?, ?)";
+        PreparedStatement statement = con.prepareStatement(addKey);
+        statement.setString(1, key);
+        statement.setString(2, operation);
+        statement.setString(3, username);
+        statement.setInt(4, appointment.getAppointmentId());
+        statement.setTimestamp(5, new Timestamp(now));
+        statement.executeUpdate();
+        return new Entry(operation, username, appointment, now);
+    }
+
+    // Deletes one batch of expired keys, at most once a minute
+    void purgeExpired() {
+        long now = System.currentTimeMillis();
+        if (now - lastPurge < PURGE_INTERVAL_MILLIS) {
+            return;
+        }
+        lastPurge = now;
+        ConnectionManager cm = new ConnectionManager();
+        try {
+            Connection con = cm.createConnection();
+            PreparedStatement statement = con.prepareStatement("DELETE TOP (?) FROM IdempotencyKeys WITH (READPAST) WHERE Created < ?");
+            statement.setInt(1, PURGE_BATCH_SIZE);
+            statement.setTimestamp(2, new Timestamp(now - ttlMillis));
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            // expired keys are ignored by find(), the next purge gets them
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private boolean isExpired(long createdMillis) {
+        return System.currentTimeMillis() - createdMillis > ttlMillis;
+    }
+}
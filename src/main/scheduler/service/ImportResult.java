@@ -0,0 +1,49 @@
+package scheduler.service;
+
+import scheduler.batch.AccountImporter;
+
+import java.nio.file.Path;
+
+public class ImportResult {
+    public enum Status {
+        IMPORTED,
+        // the import stopped part way, the counts are what was done before
+        FAILED
+    }
+
+    private final Status status;
+    private final long rowsImported;
+    private final long rowsRejected;
+    private final Path rejectFile;
+    private final Exception error;
+
+    ImportResult(AccountImporter importer, Exception error) {
+        this.status = error == null ? Status.IMPORTED : Status.FAILED;
+        this.rowsImported = importer.getRowsImported();
+        this.rowsRejected = importer.getRowsRejected();
+        this.rejectFile = importer.getRejectFile();
+        this.error = error;
+    }
+
+    // Getters
+    public Status getStatus() {
+        return status;
+    }
+
+    public long getRowsImported() {
+        return rowsImported;
+    }
+
+    public long getRowsRejected() {
+        return rowsRejected;
+    }
+
+    public Path getRejectFile() {
+        return rejectFile;
+    }
+
+    // what the import failed with, only when FAILED
+    public Exception getError() {
+        return error;
+    }
+}
@@ -0,0 +1,39 @@
+package scheduler.service;
+
+public class LoginResult {
+    public enum Status {
+        LOGGED_IN,
+        ALREADY_LOGGED_IN,
+        FAILED,
+        // resume without SessionKey set
+        TOKENS_DISABLED
+    }
+
+    private final Status status;
+    private final String username;
+    private final String token;
+
+    LoginResult(Status status, String username) {
+        this(status, username, null);
+    }
+
+    LoginResult(Status status, String username, String token) {
+        this.status = status;
+        this.username = username;
+        this.token = token;
+    }
+
+    // Getters
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    // the session token to resume with, only when logged in and SessionKey is set
+    public String getToken() {
+        return token;
+    }
+}
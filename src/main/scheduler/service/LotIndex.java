@@ -0,0 +1,94 @@
+package scheduler.service;
+
+import scheduler.model.VaccineLot;
+import scheduler.util.Util;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Lots of every vaccine that still have doses, kept in memory in order of expiry so that reserve finds the
+// soonest-expiring lot still valid on the appointment date with one ceiling() lookup, in O(log n).
+//
+// The index only says which lot to try; the database decides. Taking a dose is a conditional update that fails if
+// the lot is empty or expired, in which case the lot is dropped from the index and the next one tried. A vaccine's
+// lots are loaded on first use, and again when no lot fits the date, at most every LotRefreshMillis (default 5000),
+// so that lots added by other processes are picked up. The lots are read outside the monitor and swapped in, so
+// other bookings of the vaccine do not wait on the database.
+class LotIndex {
+    private static final Comparator<VaccineLot> BY_EXPIRY = Comparator.comparing(VaccineLot::getExpiry)
+            .thenComparing(VaccineLot::getLotId);
+
+    private final long refreshMillis = Util.getenvLong("LotRefreshMillis", 5000);
+
+    private final Map<String, Lots> byVaccine = new ConcurrentHashMap<>();
+
+    // The lots of one vaccine
+    private static class Lots {
+        private TreeSet<VaccineLot> lots = new TreeSet<>(BY_EXPIRY);
+        private long loadedMillis = 0;
+    }
+
+    // Takes one dose of the vaccine from the soonest-expiring lot valid on the date, as part of the caller's
+    // transaction on the home database. Returns the lot ID, or null if no lot has a dose valid on that date.
+    String takeDose(Connection con, String vaccineName, Date date) throws SQLException {
+        Lots lots = byVaccine.computeIfAbsent(vaccineName, name -> new Lots());
+        // the lot expiring first that is valid on the date: nothing sorts before it with an expiry on or after the date
+        VaccineLot earliest = new VaccineLot.VaccineLotBuilder("", vaccineName, 0, date).build();
+        boolean reloaded = false;
+        while (true) {
+            VaccineLot candidate;
+            boolean stale;
+            synchronized (lots) {
+                candidate = lots.lots.ceiling(earliest);
+                stale = System.currentTimeMillis() - lots.loadedMillis >= refreshMillis;
+            }
+            if (candidate == null && !reloaded && stale) {
+                load(con, vaccineName, lots);
+                reloaded = true;
+                continue;
+            }
+            if (candidate == null) {
+                return null;
+            }
+            if (VaccineLot.takeDose(con, candidate.getLotId(), date)) {
+                return candidate.getLotId();
+            }
+            // empty, or taken by someone else meanwhile
+            synchronized (lots) {
+                lots.lots.remove(candidate);
+            }
+        }
+    }
+
+    // Returns one dose to the lot as part of the caller's transaction on the home database
+    void returnDose(Connection con, String lotId) throws SQLException {
+        VaccineLot lot = VaccineLot.returnDose(con, lotId);
+        if (lot != null) {
+            added(lot);
+        }
+    }
+
+    // A lot that has (more) doses now
+    void added(VaccineLot lot) {
+        Lots lots = byVaccine.computeIfAbsent(lot.getVaccineName(), name -> new Lots());
+        synchronized (lots) {
+            lots.lots.add(lot);
+        }
+    }
+
+    private static void load(Connection con, String vaccineName, Lots lots) throws SQLException {
+        List<VaccineLot> found = VaccineLot.forVaccine(con, vaccineName);
+        TreeSet<VaccineLot> loaded = new TreeSet<>(BY_EXPIRY);
+        loaded.addAll(found);
+        synchronized (lots) {
+            lots.lots = loaded;
+            lots.loadedMillis = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package scheduler.service;
+
+import scheduler.report.DailyReport;
+
+import java.nio.file.Path;
+
+public class ReportResult {
+    public enum Status {
+        WRITTEN,
+        // the report stopped part way, its files are incomplete
+        FAILED
+    }
+
+    private final Status status;
+    private final int caregivers;
+    private final long appointments;
+    private final long elapsedMillis;
+    private final Path outDir;
+    private final Exception error;
+
+    ReportResult(DailyReport report, Exception error) {
+        this.status = error == null ? Status.WRITTEN : Status.FAILED;
+        this.caregivers = report.getCaregivers();
+        this.appointments = report.getAppointments();
+        this.elapsedMillis = report.getElapsedMillis();
+        this.outDir = report.getOutDir();
+        this.error = error;
+    }
+
+    // Getters
+    public Status getStatus() {
+        return status;
+    }
+
+    public int getCaregivers() {
+        return caregivers;
+    }
+
+    public long getAppointments() {
+        return appointments;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public Path getOutDir() {
+        return outDir;
+    }
+
+    // what the report failed with, only when FAILED
+    public Exception getError() {
+        return error;
+    }
+}
@@ -0,0 +1,29 @@
+package scheduler.service;
+
+import scheduler.model.Appointment;
+
+public class ReserveResult {
+    public enum Status {
+        SCHEDULED,
+        NO_DOSES,
+        NO_CAREGIVER
+    }
+
+    private final Status status;
+    private final Appointment appointment;
+
+    ReserveResult(Status status, Appointment appointment) {
+        this.status = status;
+        this.appointment = appointment;
+    }
+
+    // Getters
+    public Status getStatus() {
+        return status;
+    }
+
+    // the booked appointment, null unless SCHEDULED
+    public Appointment getAppointment() {
+        return appointment;
+    }
+}
@@ -0,0 +1,27 @@
+package scheduler.service;
+
+import scheduler.model.Availability;
+import scheduler.model.Vaccine;
+
+import java.util.List;
+
+public class ScheduleResult {
+    private final List<Availability> caregivers;
+    private final List<Vaccine> vaccines;
+
+    ScheduleResult(List<Availability> caregivers, List<Vaccine> vaccines) {
+        this.caregivers = caregivers;
+        this.vaccines = vaccines;
+    }
+
+    // Getters
+    // the caregivers with free slots on the date
+    public List<Availability> getCaregivers() {
+        return caregivers;
+    }
+
+    // every vaccine with its available doses
+    public List<Vaccine> getVaccines() {
+        return vaccines;
+    }
+}
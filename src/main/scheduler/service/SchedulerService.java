@@ -0,0 +1,995 @@
+package scheduler.service;
+
+import scheduler.audit.AuditLog;
+import scheduler.batch.AccountImporter;
+import scheduler.batch.CampaignPlanner;
+import scheduler.db.ConnectionManager;
+import scheduler.db.NameIds;
+import scheduler.db.Retry;
+import scheduler.db.Shard;
+import scheduler.db.ShardRouter;
+import scheduler.model.Appointment;
+import scheduler.model.Availability;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+import scheduler.model.VaccineLot;
+import scheduler.model.VaccineUsage;
+import scheduler.report.DailyReport;
+import scheduler.trace.Trace;
+import scheduler.util.TimeSlots;
+import scheduler.util.Util;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+// All scheduler operations as an asynchronous API. Every method returns right away; the database work runs on the
+// executor and independent lookups within one operation run in parallel.
+//
+// Failed futures carry an IllegalStateException when the session is not allowed to do the operation (e.g. reserve
+// without being logged in as a patient, or with an account that no longer exists) and a SQLException when the database failed. Expected outcomes such as "no
+// caregiver available" are reported in the result objects.
+public class SchedulerService {
+
+    private final Executor executor;
+
+    // outcomes of reserve and cancel requests sent with a request key
+    private final IdempotencyStore idempotency = new IdempotencyStore();
+
+    // issued at login, so that resume does not need the password
+    private final SessionTokens tokens = new SessionTokens();
+
+    // lots of every vaccine by expiry, reserve takes the dose from the one expiring first
+    private final LotIndex lots = new LotIndex();
+
+    // days with free slots, for the follow-up window of reserve_series
+    private final AvailabilityIndex availability = new AvailabilityIndex();
+
+    // how late the second dose of a series may be booked after it is due
+    private final long seriesWindowDays = Util.getenvLong("SeriesWindowDays", 7);
+
+    // Uses virtual threads when the JVM has them, since every task mostly waits on the database
+    public SchedulerService() {
+        this(defaultExecutor());
+    }
+
+    // Tasks run with the trace of the command that started them
+    public SchedulerService(Executor executor) {
+        this.executor = Trace.propagating(executor);
+    }
+
+    // ServiceExecutor=platform forces a pool of platform threads even on JVMs with virtual threads
+    public static ExecutorService defaultExecutor() {
+        if (!"platform".equals(System.getenv("ServiceExecutor"))) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                // virtual threads need Java 21, fall back to platform threads
+            }
+        }
+        return Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "scheduler-service");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public CompletableFuture<AccountResult> createAccount(Session session, String username, String password, boolean isCaregiver) {
+        return async(() -> {
+            // check 1: check if the username has been taken already
+            if (usernameExists(username, isCaregiver)) {
+                return new AccountResult(AccountResult.Status.USERNAME_TAKEN, username);
+            }
+            // check 2: check strong password
+            if (!Util.isStrongPasswd(password)) {
+                return new AccountResult(AccountResult.Status.WEAK_PASSWORD, username);
+            }
+
+            byte[] salt = Util.generateSalt();
+            byte[] hash = Util.generateHash(password, salt);
+
+            // create the account, the new user is logged in right away
+            if (isCaregiver) {
+                Caregiver caregiver = new Caregiver.CaregiverBuilder(username, salt, hash).build();
+                caregiver.saveToDB();
+                session.loginAs(caregiver);
+            } else {
+                Patient patient = new Patient.PatientBuilder(username, salt, hash).build();
+                patient.saveToDB();
+                session.loginAs(patient);
+            }
+            return new AccountResult(AccountResult.Status.CREATED, username);
+        });
+    }
+
+    private boolean usernameExists(String username, boolean isCaregiver) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String selectUsername = "SELECT * FROM " + (isCaregiver ? "Caregivers" : "Patients") + " WHERE Username = ?";
+        try {
+            PreparedStatement statement = con.prepareStatement(selectUsername);
+            statement.setString(1, username);
+            ResultSet resultSet = statement.executeQuery();
+            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
+            return resultSet.isBeforeFirst();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    public CompletableFuture<LoginResult> login(Session session, String username, String password, boolean isCaregiver) {
+        // check 1: if someone's already logged-in, they need to log out first
+        if (session.isLoggedIn()) {
+            return CompletableFuture.completedFuture(new LoginResult(LoginResult.Status.ALREADY_LOGGED_IN, username));
+        }
+        return async(() -> {
+            if (isCaregiver) {
+                Caregiver caregiver = new Caregiver.CaregiverGetter(username, password).get();
+                if (caregiver == null) {
+                    return new LoginResult(LoginResult.Status.FAILED, username);
+                }
+                session.loginAs(caregiver, tokens.issue(true, username));
+            } else {
+                Patient patient = new Patient.PatientGetter(username, password).get();
+                if (patient == null) {
+                    return new LoginResult(LoginResult.Status.FAILED, username);
+                }
+                session.loginAs(patient, tokens.issue(false, username));
+            }
+            return new LoginResult(LoginResult.Status.LOGGED_IN, username, session.getToken());
+        });
+    }
+
+    // Logs in with a token issued by login, without hashing a password or reaching the database. Tokens need
+    // SessionKey, see SessionTokens.
+    public LoginResult resume(Session session, String token) {
+        if (session.isLoggedIn()) {
+            return new LoginResult(LoginResult.Status.ALREADY_LOGGED_IN, null);
+        }
+        if (!tokens.isEnabled()) {
+            return new LoginResult(LoginResult.Status.TOKENS_DISABLED, null);
+        }
+        SessionTokens.Claims claims = tokens.verify(token);
+        if (claims == null) {
+            return new LoginResult(LoginResult.Status.FAILED, null);
+        }
+        // the user was authenticated when the token was issued, the password hash is not needed for the session
+        if (claims.isCaregiver()) {
+            session.loginAs(new Caregiver.CaregiverBuilder(claims.getUsername(), null, null).build(), token);
+        } else {
+            session.loginAs(new Patient.PatientBuilder(claims.getUsername(), null, null).build(), token);
+        }
+        return new LoginResult(LoginResult.Status.LOGGED_IN, claims.getUsername(), token);
+    }
+
+    public void logout(Session session) {
+        // the token must not log anyone in again, even if it was copied elsewhere
+        String token = session.getToken();
+        if (token != null) {
+            tokens.revoke(token);
+        }
+        session.logout();
+    }
+
+    // Caregivers with free slots on the date and the doses left of every vaccine, both looked up in parallel
+    public CompletableFuture<ScheduleResult> search(Session session, Date date) {
+        if (!session.isLoggedIn()) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Please login as caregiver or patient first."));
+        }
+        CompletableFuture<List<Availability>> caregivers = async(() -> {
+            ConnectionManager cm = ShardRouter.forDate(date, ConnectionManager.Route.READ);
+            Connection con = cm.createConnection();
+            String findCaregiverByTime = "SELECT CaregiverID, Slots FROM Availabilities WHERE Time = ? AND Slots <> 0";
+            try {
+                PreparedStatement statement = con.prepareStatement(findCaregiverByTime);
+                statement.setDate(1, date);
+                ResultSet resultSet = statement.executeQuery();
+                List<Availability> availabilities = new ArrayList<>();
+                while (resultSet.next()) {
+                    int caregiverId = resultSet.getInt("CaregiverID");
+                    availabilities.add(new Availability.AvailabilityBuilder(date, caregiverId, NameIds.CAREGIVERS.name(caregiverId),
+                            resultSet.getLong("Slots")).build());
+                }
+                return availabilities;
+            } finally {
+                cm.closeConnection();
+            }
+        });
+        CompletableFuture<List<Vaccine>> vaccines = async(SchedulerService::listVaccines);
+        return caregivers.thenCombine(vaccines, ScheduleResult::new);
+    }
+
+    private static List<Vaccine> listVaccines() throws SQLException {
+        ConnectionManager cm = new ConnectionManager(ConnectionManager.Route.READ);
+        Connection con = cm.createConnection();
+        String availableVaccines = "SELECT * FROM Vaccines";
+        try {
+            PreparedStatement vaccineStatement = con.prepareStatement(availableVaccines);
+            ResultSet vaccineResultSet = vaccineStatement.executeQuery();
+            List<Vaccine> inventory = new ArrayList<>();
+            while (vaccineResultSet.next()) {
+                inventory.add(new Vaccine.VaccineBuilder(vaccineResultSet.getString("Name"), vaccineResultSet.getInt("Doses")).build());
+            }
+            return inventory;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Books the vaccine with a caregiver available on the date. The vaccine and the availability are checked in
+    // parallel before the booking transaction runs.
+    public CompletableFuture<ReserveResult> reserve(Session session, Date date, String vaccineName) {
+        return reserve(session, date, vaccineName, null);
+    }
+
+    // Same, with an optional request key: repeating a request with the same key returns the appointment booked by
+    // the first one instead of booking another
+    public CompletableFuture<ReserveResult> reserve(Session session, Date date, String vaccineName, String requestKey) {
+        Patient patient = session.getPatient();
+        if (patient == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("You must log in as patient to schedule an vaccine appointment"));
+        }
+        if (requestKey != null && requestKey.length() > IdempotencyStore.MAX_KEY_LENGTH) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Request keys are at most " + IdempotencyStore.MAX_KEY_LENGTH + " characters"));
+        }
+        IdempotencyStore.Entry cached = requestKey == null ? null : idempotency.cached(requestKey);
+        if (cached != null) {
+            return CompletableFuture.supplyAsync(() -> new ReserveResult(ReserveResult.Status.SCHEDULED,
+                    replayed(cached, "reserve", patient.getUsername())), executor);
+        }
+        // the key is looked up alongside the other checks
+        CompletableFuture<IdempotencyStore.Entry> earlier = requestKey == null ? CompletableFuture.completedFuture(null)
+                : async(() -> idempotency.find(requestKey));
+        CompletableFuture<Vaccine> vaccine = async(() -> new Vaccine.VaccineGetter(vaccineName).get());
+        CompletableFuture<Boolean> anyCaregiver = async(() -> hasAvailability(date));
+        return CompletableFuture.allOf(earlier, vaccine, anyCaregiver).thenApplyAsync(ignored -> {
+            if (earlier.join() != null) {
+                return new ReserveResult(ReserveResult.Status.SCHEDULED, replayed(earlier.join(), "reserve", patient.getUsername()));
+            }
+            Vaccine selectedVaccine = vaccine.join();
+            boolean available = anyCaregiver.join();
+            if (selectedVaccine == null || selectedVaccine.getAvailableDoses() == 0) {
+                return new ReserveResult(ReserveResult.Status.NO_DOSES, null);
+            }
+            if (!available) {
+                return new ReserveResult(ReserveResult.Status.NO_CAREGIVER, null);
+            }
+            try {
+                // repeated if it loses a deadlock or another node took the same ID or request key
+                AtomicBoolean retried = new AtomicBoolean(false);
+                Appointment appointment = Retry.run("reserve", () -> {
+                    if (requestKey != null && retried.getAndSet(true)) {
+                        // a concurrent request with the same key may have won
+                        IdempotencyStore.Entry entry = idempotency.find(requestKey);
+                        if (entry != null) {
+                            return replayed(entry, "reserve", patient.getUsername());
+                        }
+                    }
+                    return bookAppointment(date, selectedVaccine, patient.getUsername(), requestKey);
+                }, Retry.DUPLICATE_KEY);
+                if (appointment == null) {
+                    return new ReserveResult(ReserveResult.Status.NO_CAREGIVER, null);
+                }
+                return new ReserveResult(ReserveResult.Status.SCHEDULED, appointment);
+            } catch (IllegalArgumentException e) {
+                return new ReserveResult(ReserveResult.Status.NO_DOSES, null);
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    // The appointment of an earlier request with the same key, if that request was the same operation by the same user
+    private static Appointment replayed(IdempotencyStore.Entry entry, String operation, String username) {
+        if (!entry.matches(operation, username)) {
+            throw new IllegalStateException("This request key was already used for a different request");
+        }
+        return entry.getAppointment();
+    }
+
+    private boolean hasAvailability(Date date) throws SQLException {
+        ConnectionManager cm = ShardRouter.forDate(date, ConnectionManager.Route.READ);
+        Connection con = cm.createConnection();
+        try {
+            PreparedStatement statement = con.prepareStatement("SELECT TOP 1 CaregiverID FROM Availabilities WHERE Time = ? AND Slots <> 0");
+            statement.setDate(1, date);
+            return statement.executeQuery().next();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // One attempt at booking, in one transaction on the shard holding this date. Returns null if no caregiver is
+    // available and throws IllegalArgumentException if the vaccine ran out. The request key, if any, is recorded on
+    // the home database, see IdempotencyStore.
+    private Appointment bookAppointment(Date selectedDate, Vaccine selectedVaccine, String patientUsername, String requestKey) throws SQLException {
+        Shard shard = ShardRouter.shardForDate(selectedDate);
+        // the appointment row holds IDs, both come from memory
+        int vaccineId = NameIds.VACCINES.requireId(selectedVaccine.getVaccineName());
+        int patientId = NameIds.PATIENTS.requireId(patientUsername);
+        ConnectionManager cm = new ConnectionManager(shard, ConnectionManager.Route.PRIMARY);
+        Connection con = cm.createConnection();
+        ConnectionManager keyCm = new ConnectionManager();
+        boolean dosesTakenSeparately = false;
+        String takenLotId = null;
+        try {
+            con.setAutoCommit(false);
+
+            // Step 1, claim the earliest free slot of a caregiver available on that date
+            Availability claimed = new Availability.AvailabilityClaimer(selectedDate).claim(con);
+            if (claimed == null) {
+                con.rollback();
+                return null;
+            }
+
+            // Step 2, take a dose of this vaccine, from the lot expiring first, and count the booking, in the same
+            // transaction when the date is on the home database
+            AtomicReference<String> lotId = new AtomicReference<>();
+            if (shard == ConnectionManager.getHomeShard()) {
+                lotId.set(takeDose(con, selectedVaccine, selectedDate));
+            } else {
+                onHome(home -> lotId.set(takeDose(home, selectedVaccine, selectedDate)));
+                dosesTakenSeparately = true;
+                takenLotId = lotId.get();
+            }
+
+            // Step 3, make an appointment
+            Appointment appointment = insertAppointment(con, shard, claimed, vaccineId, patientId, lotId.get());
+            Connection keyCon = null;
+            IdempotencyStore.Entry recorded = null;
+            if (requestKey != null) {
+                keyCon = keyConnection(shard, con, keyCm);
+                recorded = idempotency.record(keyCon, requestKey, "reserve", patientUsername, appointment);
+            }
+            Retry.commit(con);
+            AuditLog.record(AuditLog.Action.RESERVE, patientUsername, appointment.getAppointmentId(), selectedDate, selectedVaccine.getVaccineName(), 1);
+            if (recorded != null && commitKey(con, keyCon)) {
+                idempotency.remember(requestKey, recorded);
+                idempotency.purgeExpired();
+            }
+            return appointment;
+        } catch (IllegalArgumentException | SQLException e) {
+            con.rollback();
+            if (dosesTakenSeparately && !(e instanceof Retry.CommitOutcomeUnknownException)) {
+                // the appointment was not booked, give the dose back on the home database
+                untakeDoseAfter(e, selectedVaccine, selectedDate, takenLotId);
+            }
+            throw e;
+        } finally {
+            cm.closeConnection();
+            keyCm.closeConnection();
+        }
+    }
+
+    // Inserts the appointment in the earliest free slot of the claimed caregiver, under the next appointment ID of
+    // the shard
+    private static Appointment insertAppointment(Connection con, Shard shard, Availability claimed, int vaccineId,
+                                                 int patientId, String lotId) throws SQLException {
+        // Note: AppointmentID is a key, and also tells which shard the appointment lives on. The archiver never
+        // moves the appointment with the highest ID, so the archive does not need to be looked at.
+        String queryMaxAppointmentID = "SELECT MAX(AppointmentID) AS MaxAppointmentID FROM Appointments";
+        PreparedStatement maxStatement = con.prepareStatement(queryMaxAppointmentID);
+        ResultSet resultSet = maxStatement.executeQuery();
+        int maxAppointmentID = 0;
+        if (resultSet.next()) {
+            maxAppointmentID = resultSet.getInt("MaxAppointmentID");
+        }
+        int nextAppointmentID = ShardRouter.nextAppointmentId(shard, maxAppointmentID);
+        int slot = claimed.getFirstFreeSlot();
+
+        String addAppointment = "INSERT INTO Appointments (AppointmentID, Time, VaccineID, PatientID, CaregiverID, Cancelled, Slot, LotID) " +
+                "VALUES (?, ?, ?, ?, ?, 0, ?, ?)";
+        PreparedStatement statement = con.prepareStatement(addAppointment);
+        statement.setInt(1, nextAppointmentID);
+        statement.setDate(2, claimed.getTime());
+        statement.setInt(3, vaccineId);
+        statement.setInt(4, patientId);
+        statement.setInt(5, claimed.getCaregiverId());
+        statement.setInt(6, slot);
+        statement.setString(7, lotId);
+        statement.executeUpdate();
+        return new Appointment.AppointmentBuilder(nextAppointmentID, claimed.getTime(), slot, vaccineId,
+                NameIds.VACCINES.name(vaccineId), patientId, NameIds.PATIENTS.name(patientId), claimed.getCaregiverId(),
+                claimed.getUsername(), lotId).build();
+    }
+
+    // Books the first dose of the vaccine on the date and the second one the vaccine's SecondDoseDays later, on the
+    // first day from then on with a free caregiver, at most SeriesWindowDays (default 7) late. Both appointments and
+    // both doses are booked, or neither.
+    public CompletableFuture<SeriesResult> reserveSeries(Session session, Date date, String vaccineName) {
+        Patient patient = session.getPatient();
+        if (patient == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("You must log in as patient to schedule an vaccine appointment"));
+        }
+        CompletableFuture<Vaccine> vaccine = async(() -> new Vaccine.VaccineGetter(vaccineName).get());
+        CompletableFuture<Boolean> anyCaregiver = async(() -> hasAvailability(date));
+        return CompletableFuture.allOf(vaccine, anyCaregiver).thenApplyAsync(ignored -> {
+            Vaccine selectedVaccine = vaccine.join();
+            if (selectedVaccine == null || selectedVaccine.getAvailableDoses() < 2) {
+                return new SeriesResult(SeriesResult.Status.NO_DOSES, null, null);
+            }
+            if (selectedVaccine.getSecondDoseDays() == 0) {
+                return new SeriesResult(SeriesResult.Status.SINGLE_DOSE, null, null);
+            }
+            if (!anyCaregiver.join()) {
+                return new SeriesResult(SeriesResult.Status.NO_CAREGIVER, null, null);
+            }
+            try {
+                Date due = Date.valueOf(date.toLocalDate().plusDays(selectedVaccine.getSecondDoseDays()));
+                // the days of the window with a free caregiver, tried in order until both doses are booked
+                for (Date second : followUpDates(due)) {
+                    SeriesResult result = Retry.run("reserve_series",
+                            () -> bookSeries(date, second, selectedVaccine, patient.getUsername()), Retry.DUPLICATE_KEY);
+                    if (result.getStatus() != SeriesResult.Status.NO_FOLLOW_UP) {
+                        return result;
+                    }
+                    availability.markFull(second);
+                }
+                return new SeriesResult(SeriesResult.Status.NO_FOLLOW_UP, null, null);
+            } catch (IllegalArgumentException e) {
+                return new SeriesResult(SeriesResult.Status.NO_DOSES, null, null);
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    // The days from the due date to the end of the window that have a caregiver with a free slot, in date order,
+    // from memory; see AvailabilityIndex
+    private List<Date> followUpDates(Date due) throws SQLException {
+        return availability.freeDays(due, Date.valueOf(due.toLocalDate().plusDays(seriesWindowDays)));
+    }
+
+    // One attempt at booking both doses. When both dates are on the home database, everything is one transaction.
+    // Otherwise the caregivers are claimed first and the doses are then taken on the home database, and given back if
+    // the appointments cannot be booked after all. Returns NO_CAREGIVER or NO_FOLLOW_UP if no caregiver is free on
+    // either date.
+    private SeriesResult bookSeries(Date firstDate, Date secondDate, Vaccine vaccine, String patientUsername) throws SQLException {
+        Shard firstShard = ShardRouter.shardForDate(firstDate);
+        Shard secondShard = ShardRouter.shardForDate(secondDate);
+        int vaccineId = NameIds.VACCINES.requireId(vaccine.getVaccineName());
+        int patientId = NameIds.PATIENTS.requireId(patientUsername);
+        SeriesResult result;
+        if (firstShard == secondShard) {
+            result = bookBoth(firstShard, firstDate, secondDate, vaccine, vaccineId, patientId);
+        } else {
+            result = bookAcross(firstShard, secondShard, firstDate, secondDate, vaccine, vaccineId, patientId, patientUsername);
+        }
+        if (result.getStatus() == SeriesResult.Status.SCHEDULED) {
+            for (Appointment appointment : new Appointment[]{result.getFirst(), result.getSecond()}) {
+                AuditLog.record(AuditLog.Action.RESERVE, patientUsername, appointment.getAppointmentId(), appointment.getTime(),
+                        vaccine.getVaccineName(), 1);
+            }
+        }
+        return result;
+    }
+
+    // Both appointments of a series in one transaction on the shard holding both dates, together with the doses when
+    // that shard is the home database. Otherwise the doses are taken on the home database once both caregivers are
+    // claimed, and given back if the appointments cannot be booked.
+    private SeriesResult bookBoth(Shard shard, Date firstDate, Date secondDate, Vaccine vaccine, int vaccineId,
+                                  int patientId) throws SQLException {
+        ConnectionManager cm = new ConnectionManager(shard, ConnectionManager.Route.PRIMARY);
+        Connection con = cm.createConnection();
+        String[] lotIds = new String[2];
+        boolean dosesTakenSeparately = false;
+        try {
+            con.setAutoCommit(false);
+            Availability firstClaimed = new Availability.AvailabilityClaimer(firstDate).claim(con);
+            Availability secondClaimed = firstClaimed == null ? null : new Availability.AvailabilityClaimer(secondDate).claim(con);
+            if (secondClaimed == null) {
+                con.rollback();
+                return new SeriesResult(firstClaimed == null ? SeriesResult.Status.NO_CAREGIVER : SeriesResult.Status.NO_FOLLOW_UP, null, null);
+            }
+            if (shard == ConnectionManager.getHomeShard()) {
+                lotIds[0] = takeDose(con, vaccine, firstDate);
+                lotIds[1] = takeDose(con, vaccine, secondDate);
+            } else {
+                takeSeriesDoses(vaccine, firstDate, secondDate, lotIds);
+                dosesTakenSeparately = true;
+            }
+            Appointment first = insertAppointment(con, shard, firstClaimed, vaccineId, patientId, lotIds[0]);
+            Appointment second = insertAppointment(con, shard, secondClaimed, vaccineId, patientId, lotIds[1]);
+            Retry.commit(con);
+            return new SeriesResult(SeriesResult.Status.SCHEDULED, first, second);
+        } catch (IllegalArgumentException | SQLException e) {
+            con.rollback();
+            if (dosesTakenSeparately && !(e instanceof Retry.CommitOutcomeUnknownException)) {
+                untakeDoseAfter(e, vaccine, firstDate, lotIds[0]);
+                untakeDoseAfter(e, vaccine, secondDate, lotIds[1]);
+            }
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // The appointments of a series whose dates are on different shards. The caregiver of the second date is claimed
+    // first and held in an open transaction on its shard, so the first appointment is only committed once the
+    // follow-up is certain; it is cancelled again only if the second appointment then fails to commit. The second
+    // date is the later one, so every series locks the later shard first and two series cannot wait on each other.
+    private SeriesResult bookAcross(Shard firstShard, Shard secondShard, Date firstDate, Date secondDate, Vaccine vaccine,
+                                    int vaccineId, int patientId, String patientUsername) throws SQLException {
+        ConnectionManager cm = new ConnectionManager(secondShard, ConnectionManager.Route.PRIMARY);
+        Connection con = cm.createConnection();
+        String[] lotIds = new String[2];
+        boolean dosesTaken = false;
+        Appointment first = null;
+        try {
+            con.setAutoCommit(false);
+            Availability secondClaimed = new Availability.AvailabilityClaimer(secondDate).claim(con);
+            if (secondClaimed == null) {
+                con.rollback();
+                return new SeriesResult(SeriesResult.Status.NO_FOLLOW_UP, null, null);
+            }
+            takeSeriesDoses(vaccine, firstDate, secondDate, lotIds);
+            dosesTaken = true;
+            first = bookOne(firstShard, firstDate, vaccineId, patientId, lotIds[0]);
+            if (first == null) {
+                con.rollback();
+                dosesTaken = false;
+                untakeDose(vaccine, firstDate, lotIds[0]);
+                untakeDose(vaccine, secondDate, lotIds[1]);
+                return new SeriesResult(SeriesResult.Status.NO_CAREGIVER, null, null);
+            }
+            Appointment second = insertAppointment(con, secondShard, secondClaimed, vaccineId, patientId, lotIds[1]);
+            Retry.commit(con);
+            return new SeriesResult(SeriesResult.Status.SCHEDULED, first, second);
+        } catch (IllegalArgumentException | SQLException e) {
+            con.rollback();
+            boolean outcomeUnknown = e instanceof Retry.CommitOutcomeUnknownException;
+            if (dosesTaken && !(outcomeUnknown && first != null)) {
+                // the second appointment was not booked; neither was the first if bookOne failed
+                untakeDoseAfter(e, vaccine, secondDate, lotIds[1]);
+                if (first != null) {
+                    // gives the slot and the first dose back
+                    try {
+                        cancelAppointment(first.getAppointmentId(), patientUsername, false, null);
+                    } catch (SQLException compensation) {
+                        e.addSuppressed(compensation);
+                    }
+                } else if (!outcomeUnknown) {
+                    untakeDoseAfter(e, vaccine, firstDate, lotIds[0]);
+                }
+            }
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // One appointment of a series in its own transaction, the dose was taken already. Returns null if no caregiver is
+    // free on the date.
+    private static Appointment bookOne(Shard shard, Date date, int vaccineId, int patientId, String lotId) throws SQLException {
+        ConnectionManager cm = new ConnectionManager(shard, ConnectionManager.Route.PRIMARY);
+        Connection con = cm.createConnection();
+        try {
+            con.setAutoCommit(false);
+            Availability claimed = new Availability.AvailabilityClaimer(date).claim(con);
+            if (claimed == null) {
+                con.rollback();
+                return null;
+            }
+            Appointment appointment = insertAppointment(con, shard, claimed, vaccineId, patientId, lotId);
+            Retry.commit(con);
+            return appointment;
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Takes a dose from the soonest-expiring lot valid on the date, or a dose without a lot if there is none.
+    // Returns the lot ID, null when the dose had no lot.
+    private String takeDose(Connection con, Vaccine vaccine, Date date) throws SQLException {
+        String lotId = lots.takeDose(con, vaccine.getVaccineName(), date);
+        if (lotId != null) {
+            vaccine.decreaseAvailableDoses(con, 1);
+        } else {
+            vaccine.decreaseDoseWithoutLot(con);
+        }
+        VaccineUsage.record(con, date, vaccine.getVaccineName(), 1, 0, 0);
+        return lotId;
+    }
+
+    // Gives back, on the home database, a dose taken for an appointment that was not booked after all
+    private void untakeDose(Vaccine vaccine, Date date, String lotId) throws SQLException {
+        onHome(home -> {
+            vaccine.increaseAvailableDoses(home, 1);
+            if (lotId != null) {
+                lots.returnDose(home, lotId);
+            }
+            VaccineUsage.record(home, date, vaccine.getVaccineName(), -1, 0, 0);
+        });
+    }
+
+    // Same, after the error that stopped the booking; if giving the dose back fails too, the booking error is still
+    // the one reported
+    private void untakeDoseAfter(Exception e, Vaccine vaccine, Date date, String lotId) {
+        try {
+            untakeDose(vaccine, date, lotId);
+        } catch (SQLException compensation) {
+            e.addSuppressed(compensation);
+        }
+    }
+
+    // The connection a request key is written on: the request's own when it runs on the home database, otherwise a
+    // new transaction on the home database, committed by commitKey right after the request's own
+    private static Connection keyConnection(Shard shard, Connection con, ConnectionManager keyCm) throws SQLException {
+        if (shard == ConnectionManager.getHomeShard()) {
+            return con;
+        }
+        Connection keyCon = keyCm.createConnection();
+        keyCon.setAutoCommit(false);
+        return keyCon;
+    }
+
+    // Commits the key's own transaction once the request's is committed. Returns false if that fails: the request
+    // stands anyway, only a repeat of it would not be recognised.
+    private static boolean commitKey(Connection con, Connection keyCon) {
+        if (keyCon == con) {
+            return true;
+        }
+        try {
+            Retry.commit(keyCon);
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    // Takes the doses of both appointments of a series in one transaction on the home database
+    private void takeSeriesDoses(Vaccine vaccine, Date firstDate, Date secondDate, String[] lotIds) throws SQLException {
+        onHome(home -> {
+            lotIds[0] = takeDose(home, vaccine, firstDate);
+            lotIds[1] = takeDose(home, vaccine, secondDate);
+        });
+    }
+
+    private void returnDose(Connection con, Vaccine vaccine, Date date, String lotId) throws SQLException {
+        vaccine.increaseAvailableDoses(con, 1);
+        if (lotId != null) {
+            lots.returnDose(con, lotId);
+        }
+        VaccineUsage.record(con, date, vaccine.getVaccineName(), 0, 1, 0);
+    }
+
+    // Updates of the vaccines and their counters, which live on the home database
+    private interface HomeUpdate {
+        void run(Connection con) throws SQLException;
+    }
+
+    // Runs the updates in one transaction on the home database
+    private static void onHome(HomeUpdate update) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            con.setAutoCommit(false);
+            update.run(con);
+            Retry.commit(con);
+        } catch (IllegalArgumentException | SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    public CompletableFuture<Void> uploadAvailability(Session session, Date date) {
+        Caregiver caregiver = session.getCaregiver();
+        if (caregiver == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Please login as a caregiver first!"));
+        }
+        return async(() -> {
+            caregiver.uploadAvailability(date);
+            availability.markFree(date);
+            AuditLog.record(AuditLog.Action.UPLOAD_AVAILABILITY, caregiver.getUsername(), -1, date, null, -1);
+            return null;
+        });
+    }
+
+    public CompletableFuture<CancelResult> cancel(Session session, int appointmentID) {
+        return cancel(session, appointmentID, null);
+    }
+
+    // Same, with an optional request key: repeating a request with the same key reports the appointment cancelled
+    // by the first one instead of "not found"
+    public CompletableFuture<CancelResult> cancel(Session session, int appointmentID, String requestKey) {
+        if (!session.isLoggedIn()) {
+            return CompletableFuture.failedFuture(new IllegalStateException("You must log in as caregiver or patient to cancel appointments"));
+        }
+        if (requestKey != null && requestKey.length() > IdempotencyStore.MAX_KEY_LENGTH) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Request keys are at most " + IdempotencyStore.MAX_KEY_LENGTH + " characters"));
+        }
+        final boolean isCaregiver = session.getCaregiver() != null;
+        final String username = isCaregiver ? session.getCaregiver().getUsername() : session.getPatient().getUsername();
+        return async(() -> Retry.run("cancel", () -> {
+                if (requestKey != null) {
+                    IdempotencyStore.Entry entry = idempotency.cached(requestKey);
+                    if (entry == null) {
+                        entry = idempotency.find(requestKey);
+                    }
+                    if (entry != null) {
+                        Appointment earlier = replayed(entry, "cancel", username);
+                        if (earlier == null || earlier.getAppointmentId() != appointmentID) {
+                            throw new IllegalStateException("This request key was already used for a different request");
+                        }
+                        return new CancelResult(CancelResult.Status.CANCELLED, earlier);
+                    }
+                }
+                return cancelAppointment(appointmentID, username, isCaregiver, requestKey);
+            }, Retry.DUPLICATE_KEY));
+    }
+
+    // One attempt at cancelling, in one transaction on the shard holding the appointment. Only the patient or the
+    // caregiver of the appointment may cancel it; NOT_FOUND if it does not exist, is already cancelled or is someone
+    // else's. The request key, if any, is recorded on the home database, see IdempotencyStore.
+    private CancelResult cancelAppointment(int appointmentID, String username, boolean isCaregiver, String requestKey) throws SQLException {
+        int userId = (isCaregiver ? NameIds.CAREGIVERS : NameIds.PATIENTS).requireId(username);
+        // the appointment ID tells which shard holds the appointment
+        Shard shard = ShardRouter.shardForAppointment(appointmentID);
+        ConnectionManager cm = new ConnectionManager(shard, ConnectionManager.Route.PRIMARY);
+        Connection con = cm.createConnection();
+        ConnectionManager keyCm = new ConnectionManager();
+        Appointment appointment;
+        Vaccine selectedVaccine;
+        try {
+            con.setAutoCommit(false);
+
+            // Step 1, mark the appointment as cancelled (Cancelled = 1) if it is present and not cancelled yet
+            String updateCancellationMark = "UPDATE Appointments SET Cancelled = 1 " +
+                    "OUTPUT inserted.AppointmentID, inserted.Time, inserted.Slot, inserted.VaccineID, inserted.PatientID, inserted.CaregiverID, " +
+                    "inserted.LotID WHERE AppointmentID = ? AND Cancelled = 0 AND " + (isCaregiver ? "CaregiverID" : "PatientID") + " = ?";
+            PreparedStatement cancelAppointment = con.prepareStatement(updateCancellationMark);
+            cancelAppointment.setInt(1, appointmentID);
+            cancelAppointment.setInt(2, userId);
+            ResultSet appointmentResults = cancelAppointment.executeQuery();
+            if (!appointmentResults.next()) {
+                con.rollback();
+                return new CancelResult(CancelResult.Status.NOT_FOUND, null);
+            }
+            appointment = new Appointment.AppointmentBuilder(appointmentResults).build();
+
+            // Step 2, give the slot back to the caregiver by setting its bit again
+            if (appointment.getSlot() != Appointment.WHOLE_DAY) {
+                String freeSlot = "UPDATE Availabilities SET Slots = Slots | ? WHERE Time = ? AND CaregiverID = ?; " +
+                        "IF @@ROWCOUNT = 0 INSERT INTO Availabilities (Time, CaregiverID, Slots) VALUES (?, ?, ?);";
+                PreparedStatement freeStatement = con.prepareStatement(freeSlot);
+                freeStatement.setLong(1, TimeSlots.bit(appointment.getSlot()));
+                freeStatement.setDate(2, appointment.getTime());
+                freeStatement.setInt(3, appointment.getCaregiverId());
+                freeStatement.setDate(4, appointment.getTime());
+                freeStatement.setInt(5, appointment.getCaregiverId());
+                freeStatement.setLong(6, TimeSlots.bit(appointment.getSlot()));
+                freeStatement.executeUpdate();
+            } else {
+                // booked before time slots, the whole day was taken: add the day back unless they have uploaded
+                // that date again meanwhile
+                String insertCaregiverAvailability = "INSERT INTO Availabilities (Time, CaregiverID, Slots) SELECT ?, ?, ? " +
+                        "WHERE NOT EXISTS (SELECT 1 FROM Availabilities WHERE Time = ? AND CaregiverID = ?)";
+                PreparedStatement insertAvailability = con.prepareStatement(insertCaregiverAvailability);
+                insertAvailability.setDate(1, appointment.getTime());
+                insertAvailability.setInt(2, appointment.getCaregiverId());
+                insertAvailability.setLong(3, TimeSlots.fullDay());
+                insertAvailability.setDate(4, appointment.getTime());
+                insertAvailability.setInt(5, appointment.getCaregiverId());
+                insertAvailability.executeUpdate();
+            }
+
+            // Step 3, increase this vaccine availability by 1, return the dose to its lot and count the
+            // cancellation, in the same transaction when on the home database
+            // Note: only the name is needed for the relative update
+            selectedVaccine = new Vaccine.VaccineBuilder(appointment.getVaccineName(), 0).build();
+            if (shard == ConnectionManager.getHomeShard()) {
+                returnDose(con, selectedVaccine, appointment.getTime(), appointment.getLotId());
+            }
+            Connection keyCon = null;
+            IdempotencyStore.Entry recorded = null;
+            if (requestKey != null) {
+                keyCon = keyConnection(shard, con, keyCm);
+                recorded = idempotency.record(keyCon, requestKey, "cancel", username, appointment);
+            }
+            Retry.commit(con);
+            AuditLog.record(AuditLog.Action.CANCEL, username, appointmentID, appointment.getTime(), appointment.getVaccineName(), 1);
+            availability.markFree(appointment.getTime());
+            if (recorded != null && commitKey(con, keyCon)) {
+                idempotency.remember(requestKey, recorded);
+                idempotency.purgeExpired();
+            }
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            cm.closeConnection();
+            // rolls the key back if it was not committed
+            keyCm.closeConnection();
+        }
+        if (shard != ConnectionManager.getHomeShard()) {
+            // the cancellation is committed, only the dose update on the home database is left to retry
+            try {
+                Retry.run("cancel-doses", () -> {
+                    onHome(home -> returnDose(home, selectedVaccine, appointment.getTime(), appointment.getLotId()));
+                    return null;
+                });
+            } catch (SQLException e) {
+                return new CancelResult(CancelResult.Status.CANCELLED_DOSE_NOT_RETURNED, appointment);
+            }
+        }
+        return new CancelResult(CancelResult.Status.CANCELLED, appointment);
+    }
+
+    // Adds doses to a vaccine, creating it if it is new. Completes with the updated vaccine.
+    public CompletableFuture<Vaccine> addDoses(Session session, String vaccineName, int doses) {
+        return addDoses(session, vaccineName, doses, null, null);
+    }
+
+    // Same, adding the doses to a lot that expires on the given date, which is created if it is new. Without a lot
+    // (lotId null) the doses do not expire.
+    public CompletableFuture<Vaccine> addDoses(Session session, String vaccineName, int doses, String lotId, Date expiry) {
+        if (session.getCaregiver() == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Please login as a caregiver first!"));
+        }
+        if (doses <= 0) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Number of doses must be positive!"));
+        }
+        if (lotId != null && lotId.length() > VaccineLot.MAX_LOT_ID_LENGTH) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Lot IDs are at most " + VaccineLot.MAX_LOT_ID_LENGTH + " characters"));
+        }
+        if (lotId != null && expiry.toLocalDate().isBefore(LocalDate.now())) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Lot " + lotId + " has already expired!"));
+        }
+        final VaccineLot lot = lotId == null ? null : new VaccineLot.VaccineLotBuilder(lotId, vaccineName, doses, expiry).build();
+        final String caregiverUsername = session.getCaregiver().getUsername();
+        // a concurrent add_doses may create the same vaccine first, the retry then finds it and adds to it
+        return async(() -> Retry.run("add_doses", () -> {
+            Vaccine existing = new Vaccine.VaccineGetter(vaccineName).get();
+            Vaccine vaccine = existing != null ? existing : new Vaccine.VaccineBuilder(vaccineName, doses).build();
+            onHome(con -> {
+                // if getter returns null, it means that we need to create the vaccine and insert it into the Vaccines table
+                if (existing == null) {
+                    vaccine.saveToDB(con);
+                } else {
+                    // if the vaccine is not null, meaning that the vaccine already exists in our table
+                    vaccine.increaseAvailableDoses(con, doses);
+                }
+                if (lot != null) {
+                    // a lot always holds one vaccine with one expiry date
+                    VaccineLot existingLot = new VaccineLot.VaccineLotGetter(lot.getLotId()).get(con);
+                    if (existingLot != null && (!existingLot.getVaccineName().equals(vaccineName)
+                            || !existingLot.getExpiry().equals(expiry))) {
+                        throw new IllegalArgumentException("Lot " + lot.getLotId() + " is " + existingLot.getVaccineName()
+                                + " expiring on " + existingLot.getExpiry());
+                    }
+                    lot.addDoses(con);
+                }
+                VaccineUsage.record(con, Date.valueOf(LocalDate.now()), vaccineName, 0, 0, doses);
+            });
+            if (lot != null) {
+                lots.added(lot);
+            }
+            AuditLog.record(AuditLog.Action.ADD_DOSES, caregiverUsername, -1, null, vaccineName, doses);
+            return vaccine;
+        }, Retry.DUPLICATE_KEY));
+    }
+
+    // The session user's appointments that are not cancelled, by date, gathered from all shards in parallel
+    public CompletableFuture<List<Appointment>> showAppointments(Session session) {
+        return showAppointments(session, false);
+    }
+
+    // Same, also reading the appointments the archiver has moved to AppointmentsArchive when includeArchived is set
+    public CompletableFuture<List<Appointment>> showAppointments(Session session, boolean includeArchived) {
+        if (!session.isLoggedIn()) {
+            return CompletableFuture.failedFuture(new IllegalStateException("You must log in as caregiver or patient to show appointments"));
+        }
+        final boolean isCaregiver = session.getCaregiver() != null;
+        final String selectedName = isCaregiver ? session.getCaregiver().getUsername() : session.getPatient().getUsername();
+        final String selectAppointments = "SELECT AppointmentID, Time, Slot, VaccineID, PatientID, CaregiverID, LotID FROM %s WHERE "
+                + (isCaregiver ? "CaregiverID" : "PatientID") + " = ? AND Cancelled = 0";
+        final String queryCurrAppointments = String.format(selectAppointments, "Appointments")
+                + (includeArchived ? " UNION ALL " + String.format(selectAppointments, "AppointmentsArchive") : "")
+                + " ORDER BY Time, Slot, AppointmentID";
+        return async(() -> {
+            int selectedId = (isCaregiver ? NameIds.CAREGIVERS : NameIds.PATIENTS).id(selectedName);
+            return ShardRouter.scatterGather(ConnectionManager.Route.READ, con -> {
+                PreparedStatement queryAppointment = con.prepareStatement(queryCurrAppointments);
+                queryAppointment.setInt(1, selectedId);
+                if (includeArchived) {
+                    queryAppointment.setInt(2, selectedId);
+                }
+                ResultSet appointmentResults = queryAppointment.executeQuery();
+                List<Appointment> found = new ArrayList<>();
+                while (appointmentResults.next()) {
+                    found.add(new Appointment.AppointmentBuilder(appointmentResults).build());
+                }
+                return found;
+            }, Appointment.BY_TIME);
+        });
+    }
+
+    // Booked, cancelled and added doses per vaccine and day between start and end (both included), read from the
+    // counters only, together with the doses left of every vaccine
+    public CompletableFuture<UtilizationResult> utilization(Session session, Date start, Date end) {
+        if (session.getCaregiver() == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Please login as a caregiver first!"));
+        }
+        CompletableFuture<List<VaccineUsage>> usage = async(() -> new VaccineUsage.VaccineUsageGetter(start, end).get());
+        CompletableFuture<List<Vaccine>> vaccines = async(SchedulerService::listVaccines);
+        return usage.thenCombine(vaccines, UtilizationResult::new);
+    }
+
+    // Creates the accounts listed in the file, see AccountImporter. A failure part way is reported in the result,
+    // together with what was imported before it.
+    public CompletableFuture<ImportResult> importAccounts(Session session, Path file) {
+        return CompletableFuture.supplyAsync(() -> {
+            AccountImporter importer = new AccountImporter(file);
+            try {
+                importer.run();
+                return new ImportResult(importer, null);
+            } catch (IOException | SQLException e) {
+                return new ImportResult(importer, e);
+            }
+        }, executor);
+    }
+
+    // Writes the manifest of every caregiver's appointments on the date into the directory, see DailyReport
+    public CompletableFuture<ReportResult> dailyReport(Session session, Date date, Path outDir) {
+        if (session.getCaregiver() == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Please login as a caregiver first!"));
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            DailyReport report = new DailyReport(date, outDir);
+            try {
+                report.run();
+                return new ReportResult(report, null);
+            } catch (IOException | SQLException e) {
+                return new ReportResult(report, e);
+            }
+        }, executor);
+    }
+
+    // Books every patient listed in the file for the vaccine on a day from start to end, see CampaignPlanner. Fails
+    // with IllegalArgumentException if the vaccine does not exist; a failure part way is reported in the result.
+    public CompletableFuture<CampaignResult> planCampaign(Session session, Path patientsFile, Date start, Date end, String vaccineName) {
+        if (session.getCaregiver() == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Please login as a caregiver first!"));
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            CampaignPlanner planner = new CampaignPlanner(patientsFile, start, end, vaccineName);
+            try {
+                planner.run();
+                return new CampaignResult(planner, null);
+            } catch (IOException | SQLException e) {
+                return new CampaignResult(planner, e);
+            }
+        }, executor);
+    }
+
+    private <T> CompletableFuture<T> async(Retry.SqlOperation<T> operation) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return operation.run();
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+}
@@ -0,0 +1,40 @@
+package scheduler.service;
+
+import scheduler.model.Appointment;
+
+public class SeriesResult {
+    public enum Status {
+        SCHEDULED,
+        NO_DOSES,
+        // no caregiver on the date of the first dose
+        NO_CAREGIVER,
+        // no caregiver from the due date of the second dose to the end of the window
+        NO_FOLLOW_UP,
+        // the vaccine takes a single dose
+        SINGLE_DOSE
+    }
+
+    private final Status status;
+    private final Appointment first;
+    private final Appointment second;
+
+    SeriesResult(Status status, Appointment first, Appointment second) {
+        this.status = status;
+        this.first = first;
+        this.second = second;
+    }
+
+    // Getters
+    public Status getStatus() {
+        return status;
+    }
+
+    // the appointments of the two doses, null unless SCHEDULED
+    public Appointment getFirst() {
+        return first;
+    }
+
+    public Appointment getSecond() {
+        return second;
+    }
+}
@@ -0,0 +1,58 @@
+package scheduler.service;
+
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+
+// The user logged in on one terminal or client.
+// Note: it is always true that at most one of caregiver and patient is not null
+public class Session {
+    private volatile Caregiver caregiver = null;
+    private volatile Patient patient = null;
+    // the session token issued at login, see SessionTokens
+    private volatile String token = null;
+
+    // Getters
+    public Caregiver getCaregiver() {
+        return caregiver;
+    }
+
+    public Patient getPatient() {
+        return patient;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public boolean isLoggedIn() {
+        return caregiver != null || patient != null;
+    }
+
+    public synchronized void loginAs(Caregiver caregiver) {
+        this.patient = null;
+        this.caregiver = caregiver;
+        this.token = null;
+    }
+
+    public synchronized void loginAs(Patient patient) {
+        this.caregiver = null;
+        this.patient = patient;
+        this.token = null;
+    }
+
+    synchronized void loginAs(Caregiver caregiver, String token) {
+        loginAs(caregiver);
+        this.token = token;
+    }
+
+    synchronized void loginAs(Patient patient, String token) {
+        loginAs(patient);
+        this.token = token;
+    }
+
+    public synchronized void logout() {
+        this.caregiver = null;
+        this.patient = null;
+        this.token = null;
+    }
+}
@@ -0,0 +1,170 @@
+package scheduler.service;
+
+import scheduler.util.Util;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Signed session tokens, so that a user who logged in once can pick the session up again without the password
+// hash and the database lookup of a login.
+//
+// A token is <payload>.<signature>, both base64url: the payload holds the role, the expiry, a random token id and
+// the username, the signature is the HMAC-SHA256 of the payload. Checking a token is one HMAC and a lookup in the
+// revocation cache. Tokens are only issued when SessionKey is set, so that every process sharing it accepts the same
+// tokens: a token can only be resumed after a logout, and a key of this process alone would not outlive it. Tokens
+// expire after SessionTokenTtlMillis (default one hour).
+//
+// logout revokes the token of the session, in this process only: another process sharing SessionKey accepts the
+// token until it expires. At most SessionRevocationCacheSize (default 10000) revoked ids are kept. When that many
+// are still live, the half expiring first is dropped and every token expiring no later than them is refused from
+// then on, so a revoked token is never accepted again, at the price of logging some other users out.
+class SessionTokens {
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final long ttlMillis = Util.getenvLong("SessionTokenTtlMillis", 60 * 60 * 1000L);
+    private final int capacity = (int) Util.getenvLong("SessionRevocationCacheSize", 10000);
+
+    // null when SessionKey is not set, no tokens are issued then
+    private final SecretKeySpec key;
+    // Mac instances are not thread-safe; idle ones are pooled, as tasks may each run on a new virtual thread
+    private final Queue<Mac> macs = new ConcurrentLinkedQueue<>();
+    private final SecureRandom random = new SecureRandom();
+
+    // revoked token id -> expiry
+    private final Map<String, Long> revoked = new HashMap<>();
+    // every token expiring at or before this is refused, raised when revoked ids had to be dropped
+    private long refusedThroughMillis = 0;
+
+    // What a valid token stands for
+    static class Claims {
+        private final boolean isCaregiver;
+        private final String username;
+        private final String tokenId;
+        private final long expiryMillis;
+
+        private Claims(boolean isCaregiver, String username, String tokenId, long expiryMillis) {
+            this.isCaregiver = isCaregiver;
+            this.username = username;
+            this.tokenId = tokenId;
+            this.expiryMillis = expiryMillis;
+        }
+
+        boolean isCaregiver() {
+            return isCaregiver;
+        }
+
+        String getUsername() {
+            return username;
+        }
+    }
+
+    SessionTokens() {
+        String secret = System.getenv("SessionKey");
+        this.key = secret == null || secret.isBlank() ? null : new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+    }
+
+    boolean isEnabled() {
+        return key != null;
+    }
+
+    // A new token, or null if tokens are not enabled
+    String issue(boolean isCaregiver, String username) {
+        if (key == null) {
+            return null;
+        }
+        byte[] id = new byte[12];
+        random.nextBytes(id);
+        String payload = (isCaregiver ? "c" : "p") + ":" + (System.currentTimeMillis() + ttlMillis) + ":"
+                + ENCODER.encodeToString(id) + ":" + username;
+        byte[] payloadBytes = payload.getBytes(StandardCharsets.UTF_8);
+        return ENCODER.encodeToString(payloadBytes) + "." + ENCODER.encodeToString(sign(payloadBytes));
+    }
+
+    // The claims of the token, or null if it is malformed, forged, expired or revoked
+    Claims verify(String token) {
+        int dot = token.indexOf('.');
+        if (key == null || dot < 0) {
+            return null;
+        }
+        byte[] payloadBytes;
+        byte[] signature;
+        try {
+            payloadBytes = DECODER.decode(token.substring(0, dot));
+            signature = DECODER.decode(token.substring(dot + 1));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (!MessageDigest.isEqual(sign(payloadBytes), signature)) {
+            return null;
+        }
+        // signed by us, so the payload is well formed
+        String[] fields = new String(payloadBytes, StandardCharsets.UTF_8).split(":", 4);
+        long expiryMillis = Long.parseLong(fields[1]);
+        if (System.currentTimeMillis() >= expiryMillis || isRevoked(fields[2], expiryMillis)) {
+            return null;
+        }
+        return new Claims(fields[0].equals("c"), fields[3], fields[2], expiryMillis);
+    }
+
+    synchronized void revoke(String token) {
+        Claims claims = verify(token);
+        if (claims == null) {
+            return;
+        }
+        revoked.put(claims.tokenId, claims.expiryMillis);
+        if (revoked.size() > capacity) {
+            long now = System.currentTimeMillis();
+            revoked.values().removeIf(expiryMillis -> now >= expiryMillis);
+        }
+        if (revoked.size() > capacity) {
+            // still full of live tokens: drop the half expiring first, and refuse every token expiring no later
+            long[] expiries = revoked.values().stream().mapToLong(Long::longValue).toArray();
+            Arrays.sort(expiries);
+            long through = expiries[expiries.length / 2];
+            revoked.values().removeIf(expiryMillis -> expiryMillis <= through);
+            refusedThroughMillis = Math.max(refusedThroughMillis, through);
+        }
+    }
+
+    private synchronized boolean isRevoked(String tokenId, long expiryMillis) {
+        if (expiryMillis <= refusedThroughMillis) {
+            return true;
+        }
+        Long revokedExpiryMillis = revoked.get(tokenId);
+        if (revokedExpiryMillis == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() >= revokedExpiryMillis) {
+            // expired anyway, no need to remember it
+            revoked.remove(tokenId);
+        }
+        return true;
+    }
+
+    private byte[] sign(byte[] payload) {
+        Mac mac = macs.poll();
+        try {
+            if (mac == null) {
+                mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+        byte[] signature = mac.doFinal(payload);
+        macs.offer(mac);
+        return signature;
+    }
+}
@@ -0,0 +1,27 @@
+package scheduler.service;
+
+import scheduler.model.Vaccine;
+import scheduler.model.VaccineUsage;
+
+import java.util.List;
+
+public class UtilizationResult {
+    private final List<VaccineUsage> usage;
+    private final List<Vaccine> vaccines;
+
+    UtilizationResult(List<VaccineUsage> usage, List<Vaccine> vaccines) {
+        this.usage = usage;
+        this.vaccines = vaccines;
+    }
+
+    // Getters
+    // the counters of every vaccine used on each day of the range, by day then vaccine
+    public List<VaccineUsage> getUsage() {
+        return usage;
+    }
+
+    // every vaccine with its available doses
+    public List<Vaccine> getVaccines() {
+        return vaccines;
+    }
+}
@@ -0,0 +1,163 @@
+package scheduler.trace;
+
+import scheduler.util.Util;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Timing of one command, broken down into spans: connection acquisition, statement execution, commits and password
+// hashing. The command line starts a trace per command; code running for it records spans with
+//
+//     try (Trace.Span span = Trace.span("hash")) { ... }
+//
+// which costs nothing when no trace is active. Tasks handed to other threads keep the trace of the thread that
+// submitted them, see propagate().
+//
+// When a command takes longer than SlowOpMillis (default 1000) its spans are written to stderr. "trace on" prints
+// them for every command.
+public class Trace {
+    private static final long slowNanos = TimeUnit.MILLISECONDS.toNanos(Util.getenvLong("SlowOpMillis", 1000));
+    // a bulk command such as import_accounts must not collect spans without bound
+    private static final int MAX_SPANS = 1000;
+
+    private static final ThreadLocal<Trace> CURRENT = new ThreadLocal<>();
+    private static volatile boolean interactive = false;
+
+    private final String name;
+    private final long startNanos = System.nanoTime();
+    private final Queue<Span> spans = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger spanCount = new AtomicInteger();
+
+    private Trace(String name) {
+        this.name = name;
+    }
+
+    // Starts a trace for the command on the current thread
+    public static Trace begin(String name) {
+        Trace trace = new Trace(name);
+        CURRENT.set(trace);
+        return trace;
+    }
+
+    public static Trace current() {
+        return CURRENT.get();
+    }
+
+    public static Span span(String name) {
+        Trace trace = CURRENT.get();
+        return trace == null ? Span.NONE : new Span(trace, name);
+    }
+
+    public static void setInteractive(boolean on) {
+        interactive = on;
+    }
+
+    public static boolean isInteractive() {
+        return interactive;
+    }
+
+    // Ends the trace on the current thread and prints it if asked to or if the command was slow
+    public void end() {
+        CURRENT.remove();
+        long total = System.nanoTime() - startNanos;
+        if (total >= slowNanos) {
+            print(System.err, "[slow] ", total);
+        } else if (interactive) {
+            print(System.out, "[trace] ", total);
+        }
+    }
+
+    // The task, run with the trace of the calling thread
+    public static Runnable propagate(Runnable task) {
+        Trace trace = CURRENT.get();
+        if (trace == null) {
+            return task;
+        }
+        return () -> {
+            Trace previous = CURRENT.get();
+            CURRENT.set(trace);
+            try {
+                task.run();
+            } finally {
+                CURRENT.set(previous);
+            }
+        };
+    }
+
+    public static <T> Callable<T> propagate(Callable<T> task) {
+        Trace trace = CURRENT.get();
+        if (trace == null) {
+            return task;
+        }
+        return () -> {
+            Trace previous = CURRENT.get();
+            CURRENT.set(trace);
+            try {
+                return task.call();
+            } finally {
+                CURRENT.set(previous);
+            }
+        };
+    }
+
+    // An executor whose tasks keep the trace of the thread that submitted them
+    public static Executor propagating(Executor executor) {
+        return task -> executor.execute(propagate(task));
+    }
+
+    private void print(PrintStream out, String prefix, long totalNanos) {
+        List<Span> sorted = new ArrayList<>(spans);
+        sorted.sort(Comparator.comparingLong(span -> span.startNanos));
+        StringBuilder sb = new StringBuilder();
+        sb.append(prefix).append(name).append(" took ").append(millis(totalNanos)).append(" ms\n");
+        for (Span span : sorted) {
+            sb.append(String.format("  +%9s ms %9s ms  %-20s %s\n", millis(span.startNanos - startNanos),
+                    millis(span.durationNanos), span.thread, span.name));
+        }
+        if (spanCount.get() > MAX_SPANS) {
+            sb.append("  ... ").append(spanCount.get() - MAX_SPANS).append(" more spans\n");
+        }
+        out.print(sb);
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3f", nanos / 1e6);
+    }
+
+    public static class Span implements AutoCloseable {
+        // returned when no trace is active
+        public static final Span NONE = new Span(null, null);
+
+        private final Trace trace;
+        private final String name;
+        private final String thread;
+        private final long startNanos;
+        private long durationNanos;
+
+        private Span(Trace trace, String name) {
+            this.trace = trace;
+            this.name = name;
+            this.thread = trace == null ? null : Thread.currentThread().getName();
+            this.startNanos = trace == null ? 0 : System.nanoTime();
+        }
+
+        @Override
+        public void close() {
+            if (trace == null) {
+                return;
+            }
+            durationNanos = System.nanoTime() - startNanos;
+            if (trace.spanCount.incrementAndGet() <= MAX_SPANS) {
+                trace.spans.add(this);
+            }
+        }
+    }
+}
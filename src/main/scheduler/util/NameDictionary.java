@@ -0,0 +1,48 @@
+package scheduler.util;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+// Two-way dictionary between names and their surrogate integer IDs: names to IDs in a StringIntMap, IDs to names in
+// an array indexed by ID. IDs are small positive integers handed out by the database, so the array stays dense.
+// Names are compared ignoring case, like the database's collation, but kept as first put for showing them.
+public class NameDictionary {
+    private final StringIntMap ids;
+    private String[] names;
+
+    public NameDictionary(int expectedSize) {
+        this.ids = new StringIntMap(expectedSize);
+        this.names = new String[Math.max(expectedSize, 16)];
+    }
+
+    public synchronized int size() {
+        return ids.size();
+    }
+
+    // The ID of the name, or StringIntMap.MISSING if it is not in the dictionary
+    public synchronized int id(String name) {
+        return ids.get(key(name));
+    }
+
+    // The name with the ID, or null if it is not in the dictionary
+    public synchronized String name(int id) {
+        return id >= 0 && id < names.length ? names[id] : null;
+    }
+
+    public synchronized void put(String name, int id) {
+        if (id < 0) {
+            throw new IllegalArgumentException("IDs cannot be negative");
+        }
+        if (id >= names.length) {
+            names = Arrays.copyOf(names, Math.max(names.length * 2, id + 1));
+        }
+        ids.put(key(name), id);
+        if (names[id] == null) {
+            names[id] = name;
+        }
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,93 @@
+package scheduler.util;
+
+import java.util.Arrays;
+
+// Map from String to int without boxing: keys and values live in two parallel arrays, collisions are resolved by
+// linear probing. The capacity is a power of two and at most half used, so a lookup touches one or two slots.
+// Entries cannot be removed. Not thread-safe.
+public class StringIntMap {
+    // returned by get() for a missing key
+    public static final int MISSING = -1;
+
+    private String[] keys;
+    private int[] hashes;
+    private int[] values;
+    private int mask;
+    private int size = 0;
+
+    public StringIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize * 2 - 1, 1)) << 1;
+        allocate(Math.max(capacity, 16));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int get(String key) {
+        int hash = hash(key);
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            String k = keys[i];
+            if (k == null) {
+                return MISSING;
+            }
+            // comparing the hash first saves most of the equals() calls on collisions
+            if (hashes[i] == hash && k.equals(key)) {
+                return values[i];
+            }
+        }
+    }
+
+    public void put(String key, int value) {
+        if (2 * (size + 1) > keys.length) {
+            grow();
+        }
+        int hash = hash(key);
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            if (keys[i] == null) {
+                keys[i] = key;
+                hashes[i] = hash;
+                values[i] = value;
+                size++;
+                return;
+            }
+            if (hashes[i] == hash && keys[i].equals(key)) {
+                values[i] = value;
+                return;
+            }
+        }
+    }
+
+    private void grow() {
+        String[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        int[] oldValues = values;
+        allocate(oldKeys.length * 2);
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != null) {
+                int i = oldHashes[j] & mask;
+                while (keys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                hashes[i] = oldHashes[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new String[capacity];
+        hashes = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, MISSING);
+        mask = capacity - 1;
+    }
+
+    // String.hashCode() is cached in the string; the mixing spreads similar names such as "patient1", "patient2"
+    // over the whole table
+    private static int hash(String key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,59 @@
+package scheduler.util;
+
+import java.time.Duration;
+import java.time.LocalTime;
+
+// The clinic day is cut into slots of SlotMinutes (default 15) from ClinicOpen (default 09:00) to ClinicClose
+// (default 17:00). The free slots of a caregiver on a day are kept in one bigint, bit i set meaning slot i is free,
+// so a day has at most 63 slots.
+public class TimeSlots {
+    public static final int MAX_SLOTS = 63;
+
+    private static final long slotMinutes = Util.getenvLong("SlotMinutes", 15);
+    private static final LocalTime open = timeFromEnv("ClinicOpen", "09:00");
+    private static final LocalTime close = timeFromEnv("ClinicClose", "17:00");
+    private static final int count = countFromEnv();
+
+    public static int count() {
+        return count;
+    }
+
+    // Every slot of the day free
+    public static long fullDay() {
+        return (1L << count) - 1;
+    }
+
+    public static long bit(int slot) {
+        return 1L << slot;
+    }
+
+    // The earliest free slot, or 64 if there is none
+    public static int firstFree(long slots) {
+        return Long.numberOfTrailingZeros(slots);
+    }
+
+    public static int freeCount(long slots) {
+        return Long.bitCount(slots);
+    }
+
+    public static LocalTime start(int slot) {
+        return open.plusMinutes(slot * slotMinutes);
+    }
+
+    private static LocalTime timeFromEnv(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return LocalTime.parse(value == null ? defaultValue : value.trim());
+    }
+
+    private static int countFromEnv() {
+        if (slotMinutes <= 0) {
+            throw new IllegalStateException("SlotMinutes must be positive");
+        }
+        long n = Duration.between(open, close).toMinutes() / slotMinutes;
+        if (n < 1 || n > MAX_SLOTS) {
+            throw new IllegalStateException("ClinicOpen to ClinicClose must hold between 1 and " + MAX_SLOTS
+                    + " slots of SlotMinutes, got " + n);
+        }
+        return (int) n;
+    }
+}
@@ -1,5 +1,7 @@
 package scheduler.util;
 
+import scheduler.trace.Trace;
+
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
 import java.security.NoSuchAlgorithmException;
@@ -7,6 +9,9 @@ import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.KeySpec;
 import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.regex.Pattern;
 
 public class Util {
 
@@ -14,6 +19,17 @@ public class Util {
     private static final int HASH_STRENGTH = 10;
     private static final int KEY_LENGTH = 16;
 
+    // compiled once instead of on every String.matches() call, the bulk importer checks passwords in parallel
+    private static final Pattern LOWER_CASE = Pattern.compile("[a-z]");
+    private static final Pattern UPPER_CASE = Pattern.compile("[A-Z]");
+    private static final Pattern DIGIT = Pattern.compile("[1-9]");
+    private static final Pattern SPECIAL_CHARACTER = Pattern.compile("[!@#?]");
+
+    // SecretKeyFactory instances are not thread-safe and the provider lookup is slow, so idle ones are pooled. A pool
+    // rather than one per thread, because the service runs every task on a new virtual thread when it can; the pool
+    // grows to the number of hashes computed at once.
+    private static final Queue<SecretKeyFactory> KEY_FACTORIES = new ConcurrentLinkedQueue<>();
+
     public static byte[] generateSalt() {
         // Generate a random cryptographic salt
         SecureRandom random = new SecureRandom();
@@ -27,17 +43,46 @@ public class Util {
         KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, HASH_STRENGTH, KEY_LENGTH);
 
         // Generate the hash
-        SecretKeyFactory factory = null;
         byte[] hash = null;
+        Trace.Span span = Trace.span("hash");
+        SecretKeyFactory factory = KEY_FACTORIES.poll();
         try {
-            factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
+            if (factory == null) {
+                factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
+            }
             hash = factory.generateSecret(spec).getEncoded();
+            KEY_FACTORIES.offer(factory);
         } catch (NoSuchAlgorithmException | InvalidKeySpecException ex) {
             throw new IllegalStateException();
+        } finally {
+            span.close();
         }
         return hash;
     }
 
+    // Computes one throwaway hash so that the provider lookup and class loading happen before the first login, and
+    // leaves its key factory in the pool for it
+    public static void warmUpHash() {
+        generateHash("warm-up", new byte[16]);
+    }
+
+    // Reads a numeric setting from the environment, falling back to the default if unset or invalid
+    public static long getenvLong(String name, long defaultValue) {
+        return parseLong(System.getenv(name), defaultValue);
+    }
+
+    public static long parseLong(String value, long defaultValue) {
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            System.out.println("Ignoring invalid number " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
     public static byte[] trim(byte[] bytes)
     {
         int i = bytes.length - 1;
@@ -49,17 +94,27 @@ public class Util {
         return Arrays.copyOf(bytes, i + 1);
     }
 
+    // Same rules as strongPasswdChecker(), without printing anything
+    public static boolean isStrongPasswd(String passwdInput) {
+        return passwdInput.length() >= 8 && LOWER_CASE.matcher(passwdInput).find() && UPPER_CASE.matcher(passwdInput).find()
+                && DIGIT.matcher(passwdInput).find() && SPECIAL_CHARACTER.matcher(passwdInput).find();
+    }
+
     public static boolean strongPasswdChecker(String passwdInput) {
-        if(passwdInput.length()>=8 && passwdInput.matches(".*[a-z].*") && passwdInput.matches(".*[A-Z].*") && passwdInput.matches(".*[1-9].*") && passwdInput.matches(".*[!@#?].*")) {
+        if(isStrongPasswd(passwdInput)) {
             return true;
         } else {
-            System.out.println("Weak password, try again.");
-            System.out.println("Strong password is the password having:\n" +
-                    "a.\tAt least 8 characters.\n" +
-                    "b.\tA mixture of both uppercase and lowercase letters.\n" +
-                    "c.\tA mixture of letters and numbers.\n" +
-                    "d.\tInclusion of at least one special character, from “!”, “@”, “#”, “?”.\n");
+            printWeakPasswdMessage();
             return false;
         }
     }
+
+    public static void printWeakPasswdMessage() {
+        System.out.println("Weak password, try again.");
+        System.out.println("Strong password is the password having:\n" +
+                "a.\tAt least 8 characters.\n" +
+                "b.\tA mixture of both uppercase and lowercase letters.\n" +
+                "c.\tA mixture of letters and numbers.\n" +
+                "d.\tInclusion of at least one special character, from “!”, “@”, “#”, “?”.\n");
+    }
 }